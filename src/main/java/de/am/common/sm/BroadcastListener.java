@@ -0,0 +1,45 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm;
+
+import de.am.common.sm.context.StateContext;
+import de.am.common.sm.event.Event;
+
+/**
+ * Receives the outcome of a {@link StateMachine#broadcast(Iterable, BroadcastListener, Object, Object...) broadcast}
+ * for each {@link StateContext} as soon as its {@link Event} has been processed, e.g. to report progress or to act on
+ * failures before the broadcast has finished.
+ * <p>
+ * The listener is called by the thread which processed the {@link Event}. If the {@link StateMachine} is processed by
+ * an {@link EventLoopGroup}, these are the loop threads, so the listener must be thread-safe. Exceptions raised by the
+ * listener are logged and do not stop the broadcast.
+ * </p>
+ *
+ * @author Martin Absmeier
+ */
+@FunctionalInterface
+public interface BroadcastListener {
+
+    /**
+     * Called once for each {@link StateContext} of the broadcast.
+     *
+     * @param context   the {@link StateContext}.
+     * @param result    the {@link DispatchResult} of the {@link Event} or <code>null</code> if it raised an exception.
+     * @param exception the exception raised by the {@link Event} or <code>null</code>.
+     */
+    void onProcessed(StateContext context, DispatchResult result, RuntimeException exception);
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm;
+
+import de.am.common.sm.context.StateContext;
+import de.am.common.sm.event.Event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregated result of {@link StateMachine#broadcast(Iterable, Object, Object...) broadcasting} an {@link Event} to
+ * many {@link StateContext}s.
+ * <p>
+ * Every {@link StateContext} is counted with the {@link DispatchResult} of its {@link Event}. {@link StateContext}s
+ * whose {@link Event} raised an exception are not counted but listed as {@link Failure}s, the broadcast continues with
+ * the next {@link StateContext}. The result is updated by the threads processing the broadcast and is complete when
+ * the broadcast returns.
+ * </p>
+ *
+ * @author Martin Absmeier
+ */
+public final class BroadcastResult {
+
+    private final Map<DispatchResult, Long> counts = new EnumMap<>(DispatchResult.class);
+    private final List<Failure> failures = new ArrayList<>();
+
+    BroadcastResult() {
+    }
+
+    /**
+     * Returns the number of {@link StateContext}s whose {@link Event} had the specified {@link DispatchResult}.
+     *
+     * @param result the {@link DispatchResult}.
+     * @return the number of {@link StateContext}s.
+     */
+    public synchronized long getCount(DispatchResult result) {
+        return counts.getOrDefault(result, 0L);
+    }
+
+    /**
+     * Returns the number of {@link StateContext}s the {@link Event} has been delivered to, including failures.
+     *
+     * @return the number of {@link StateContext}s.
+     */
+    public synchronized long getContextCount() {
+        long count = failures.size();
+        for (long c : counts.values()) {
+            count += c;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the {@link StateContext}s whose {@link Event} raised an exception.
+     *
+     * @return an unmodifiable copy of the {@link Failure}s in the order they were recorded.
+     */
+    public synchronized List<Failure> getFailures() {
+        return Collections.unmodifiableList(new ArrayList<>(failures));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "counts: " + counts + ", failures: " + failures.size();
+    }
+
+    synchronized void add(DispatchResult result) {
+        counts.merge(result, 1L, Long::sum);
+    }
+
+    synchronized void addFailure(StateContext context, RuntimeException exception) {
+        failures.add(new Failure(context, exception));
+    }
+
+    /**
+     * A {@link StateContext} whose {@link Event} raised an exception.
+     *
+     * @param context   the {@link StateContext}.
+     * @param exception the exception.
+     */
+    public record Failure(StateContext context, RuntimeException exception) {
+
+        @Override
+        public String toString() {
+            /* The context may reference large graphs, its current state is enough. */
+            return "state: " + context.getCurrentState() + ", exception: " + exception;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm;
+
+import de.am.common.sm.context.StateContext;
+import de.am.common.sm.transition.ContextMethodTransition;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Marks a handler class whose instances are bound to the {@link StateContext}s instead of to the {@link StateMachine}.
+ * <p>
+ * Passed to {@link StateMachineFactory}, the transitions and entry/exit hooks of the handler class are created as
+ * {@link ContextMethodTransition}s, which look up the handler instance under the handler class in the attributes of
+ * the context at dispatch time:
+ * </p>
+ * <pre>
+ * StateMachine sm = factory.create("start", ContextHandler.of(MyHandler.class));
+ * context.setAttribute(MyHandler.class, new MyHandler());
+ * </pre>
+ * <p>
+ * A handler class passed without this marker only contributes its {@link de.am.common.sm.annotation.State} fields.
+ * </p>
+ *
+ * @author Martin Absmeier
+ */
+@Getter
+@EqualsAndHashCode
+@ToString
+public final class ContextHandler {
+
+    private final Class<?> handlerClass;
+
+    private ContextHandler(Class<?> handlerClass) {
+        this.handlerClass = handlerClass;
+    }
+
+    /**
+     * Returns a marker for the specified handler class.
+     *
+     * @param handlerClass the handler class.
+     * @return the {@link ContextHandler}.
+     */
+    public static ContextHandler of(Class<?> handlerClass) {
+        requireNonNull(handlerClass, "NULL is not permitted as value for 'handlerClass' parameter.");
+        return new ContextHandler(handlerClass);
+    }
+}
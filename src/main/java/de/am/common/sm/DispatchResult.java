@@ -0,0 +1,47 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm;
+
+import de.am.common.sm.event.Event;
+
+/**
+ * Result of {@link StateMachine#tryHandle(Event) dispatching} an {@link Event}.
+ *
+ * @author Martin Absmeier
+ */
+public enum DispatchResult {
+
+    /**
+     * A transition has handled the {@link Event}.
+     */
+    HANDLED,
+
+    /**
+     * No transition of the current state or its parents could handle the {@link Event}.
+     */
+    UNHANDLED,
+
+    /**
+     * The {@link Event} has been queued since the calling thread is already processing an {@link Event}. It is handled
+     * after the current {@link Event} has been processed.
+     */
+    QUEUED,
+
+    /**
+     * The current state defers the {@link Event}. It is handled again after the next state change.
+     */
+    DEFERRED
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm;
+
+import de.am.common.sm.event.Event;
+import de.am.common.sm.transition.AbstractTransition;
+import de.am.common.sm.transition.Transition;
+import de.am.common.sm.transition.TypedTransition;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Precomputed index of the {@link Event} ids accepted by the {@link State}s of a {@link StateMachine}.
+ * <p>
+ * Every event id any {@link AbstractTransition} handles or any {@link State} defers gets an ordinal, and every
+ * {@link State} gets a {@link BitSet} of the ordinals accepted by itself or one of its parents, including parents
+ * which have not been passed to the {@link StateMachine}. A {@link State} with a wildcard transition, a
+ * {@link Transition} not derived from {@link AbstractTransition} or one which overrides
+ * {@link AbstractTransition#execute(Event)} accepts any event id, since the ids it handles can not be known in advance.
+ * </p>
+ * <p>
+ * Typed events use the {@link Class} of their message as id and are handled by transitions for that class or any of
+ * its supertypes. For such ids the ordinals of all matching {@link Class} ids are cached per message class in a
+ * {@link ClassValue}, so the assignability checks run only once per message class.
+ * </p>
+ *
+ * @author Martin Absmeier
+ */
+final class EventIdIndex {
+
+    /* Whether the transitions of a class are selected by their event id, i.e. whether they keep the matching of
+     * AbstractTransition or TypedTransition. Classes whose methods can not be looked up are treated as unknown. */
+    private static final ClassValue<Boolean> MATCHES_BY_EVENT_ID = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                Class<?> declaringClass = type.getMethod("execute", Event.class).getDeclaringClass();
+                return declaringClass == AbstractTransition.class || declaringClass == TypedTransition.class;
+            } catch (NoSuchMethodException | SecurityException e) {
+                return false;
+            }
+        }
+    };
+
+    private final Map<Object, Integer> ordinals = new HashMap<>();
+    private final Map<State, BitSet> acceptedByState = new IdentityHashMap<>();
+    private final Set<State> acceptingAny = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<Class<?>> typeIds = new ArrayList<>();
+    private final ClassValue<BitSet> typeOrdinals = new ClassValue<>() {
+        @Override
+        protected BitSet computeValue(Class<?> type) {
+            BitSet bits = new BitSet();
+            for (Class<?> typeId : typeIds) {
+                if (typeId.isAssignableFrom(type)) {
+                    bits.set(ordinals.get(typeId));
+                }
+            }
+            return bits;
+        }
+    };
+
+    EventIdIndex(Iterable<State> states) {
+        Map<State, BitSet> declared = new IdentityHashMap<>();
+        Set<State> declaredAny = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        /* Events not handled by a state are passed on to its parent, so a state accepts what its ancestors accept.
+         * Parents which have not been passed in are declared when they are reached. */
+        for (State state : states) {
+            BitSet bits = new BitSet();
+            for (State s = state; s != null; s = s.getParent()) {
+                BitSet own = declared.get(s);
+                if (own == null) {
+                    own = declare(s, declaredAny);
+                    declared.put(s, own);
+                }
+                if (declaredAny.contains(s)) {
+                    acceptingAny.add(state);
+                }
+                bits.or(own);
+            }
+            acceptedByState.put(state, bits);
+        }
+    }
+
+    /**
+     * Returns the event id by which the specified {@link Transition} is selected.
+     *
+     * @param transition the {@link Transition}.
+     * @return the event id or <code>null</code> if the {@link Transition} may handle any event id.
+     */
+    static Object eventIdOf(Transition transition) {
+        if (!(transition instanceof AbstractTransition) || !MATCHES_BY_EVENT_ID.get(transition.getClass())) {
+            return null;
+        }
+        Object eventId = ((AbstractTransition) transition).getEventId();
+        return Event.WILDCARD_EVENT_ID.equals(eventId) ? null : eventId;
+    }
+
+    boolean isAccepted(Object eventId) {
+        if (!acceptingAny.isEmpty()) {
+            return true;
+        }
+        if (eventId instanceof Class) {
+            return !typeOrdinals.get((Class<?>) eventId).isEmpty();
+        }
+        return ordinals.containsKey(eventId);
+    }
+
+    boolean isAccepted(State state, Object eventId) {
+        BitSet bits = acceptedByState.get(state);
+        if (bits == null || acceptingAny.contains(state)) {
+            /* Unknown states are not rejected. */
+            return true;
+        }
+        if (eventId instanceof Class) {
+            return typeOrdinals.get((Class<?>) eventId).intersects(bits);
+        }
+        Integer ordinal = ordinals.get(eventId);
+        return ordinal != null && bits.get(ordinal);
+    }
+
+    Set<Object> getEventIds() {
+        return Collections.unmodifiableSet(ordinals.keySet());
+    }
+
+    // #################################################################################################################
+    private BitSet declare(State state, Set<State> declaredAny) {
+        BitSet bits = new BitSet();
+        for (Transition transition : state.getTransitions()) {
+            Object eventId = eventIdOf(transition);
+            if (eventId == null) {
+                declaredAny.add(state);
+            } else {
+                bits.set(ordinal(eventId));
+            }
+        }
+        for (Object eventId : state.getDeferredEventIds()) {
+            bits.set(ordinal(eventId));
+        }
+        return bits;
+    }
+
+    private int ordinal(Object eventId) {
+        Integer ordinal = ordinals.get(eventId);
+        if (ordinal == null) {
+            ordinal = ordinals.size();
+            ordinals.put(eventId, ordinal);
+            if (eventId instanceof Class) {
+                typeIds.add((Class<?>) eventId);
+            }
+        }
+        return ordinal;
+    }
+}
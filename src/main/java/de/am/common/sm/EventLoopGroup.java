@@ -0,0 +1,228 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm;
+
+import de.am.common.sm.context.StateContext;
+import de.am.common.sm.event.Event;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Processes the {@link Event}s of a {@link StateMachine} on a fixed number of single threaded event loops instead of
+ * serializing them through the lock of the {@link StateMachine}.
+ * <p>
+ * Every {@link StateContext} is pinned to one loop by its identity hash code, so all of its {@link Event}s, including
+ * the timeouts of its {@link State}s, are processed by the same thread and in submission order, while the
+ * {@link Event}s of contexts on different loops are processed in parallel. Each loop drains a lock-free queue in
+ * batches and parks when it is empty. Handlers shared by contexts on different loops must therefore be thread-safe.
+ * </p>
+ * <p>
+ * A {@link StateMachine} is processed by at most one open group. While the group is open, every {@link Event} of the
+ * machine is delivered through it: {@link Event}s submitted to the group or sent through a proxy of the machine,
+ * {@link State#getTimeout() timeouts}, {@link StateMachine#schedule(Event, java.time.Duration) scheduled}
+ * {@link Event}s and {@link StateMachine#broadcast(Iterable, Object, Object...) broadcasts}.
+ * {@link StateMachine#handle(Event)} and {@link StateMachine#tryHandle(Event)} are only permitted on the loop thread of
+ * the {@link StateContext}, i.e. from within a handler. Events are processed like {@link StateMachine#tryHandle(Event)},
+ * unhandled events and exceptions are logged.
+ * </p>
+ *
+ * @author Martin Absmeier
+ */
+public final class EventLoopGroup implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger(EventLoopGroup.class);
+
+    private static final int BATCH_SIZE = 256;
+
+    private final StateMachine sm;
+    private final EventLoop[] loops;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a new group and starts its loop threads.
+     *
+     * @param sm      the {@link StateMachine} processing the {@link Event}s.
+     * @param threads the number of loop threads.
+     * @throws IllegalStateException if the {@link StateMachine} is already processed by another open group.
+     */
+    public EventLoopGroup(StateMachine sm, int threads) {
+        requireNonNull(sm, "NULL is not permitted as value for 'sm' parameter.");
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be greater than 0: " + threads);
+        }
+
+        this.sm = sm;
+        this.loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new EventLoop("common-sm-loop-" + i);
+        }
+        sm.attach(this);
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    /**
+     * Returns the number of loop threads.
+     *
+     * @return the number of loop threads.
+     */
+    public int getThreadCount() {
+        return loops.length;
+    }
+
+    /**
+     * Submits the specified {@link Event} to the loop of its {@link StateContext}.
+     *
+     * @param event the {@link Event} to process.
+     * @throws IllegalStateException if this group has been closed.
+     */
+    public void submit(Event event) {
+        requireNonNull(event, "NULL is not permitted as value for 'event' parameter.");
+
+        execute(event.getContext(), () -> {
+            if (sm.dispatchOnLoop(event, false) == DispatchResult.UNHANDLED && LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Event {} was not handled.", event);
+            }
+        });
+    }
+
+    /**
+     * Closes this group. {@link Event}s submitted before are still processed, then the loop threads terminate. Waits
+     * for the loop threads unless called by one of them. Afterwards the {@link StateMachine} processes its
+     * {@link Event}s in the calling threads again.
+     */
+    @Override
+    public void close() {
+        sm.detach(this);
+        running = false;
+        for (EventLoop loop : loops) {
+            LockSupport.unpark(loop.thread);
+        }
+        for (EventLoop loop : loops) {
+            if (loop.thread != Thread.currentThread()) {
+                try {
+                    loop.thread.join();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /* Runs the task on the loop the context is pinned to. */
+    void execute(StateContext context, Runnable task) {
+        loopOf(context).execute(task);
+    }
+
+    boolean isLoopThread(StateContext context) {
+        return loopOf(context).thread == Thread.currentThread();
+    }
+
+    boolean isLoopThread() {
+        for (EventLoop loop : loops) {
+            if (loop.thread == Thread.currentThread()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // #################################################################################################################
+    private EventLoop loopOf(StateContext context) {
+        /* Identity, since the hash code of a context may change with its attributes. */
+        int hash = System.identityHashCode(context);
+        return loops[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % loops.length];
+    }
+
+    private final class EventLoop implements Executor {
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean parked = new AtomicBoolean();
+        private final Thread thread;
+
+        EventLoop(String name) {
+            this.thread = new Thread(this::run, name);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (!running) {
+                throw new IllegalStateException("The event loop group has been closed.");
+            }
+            tasks.add(task);
+            /* close() may have run since the check. The loop drains its queue once more after it has seen the group
+             * closed, so a task it did not take can still be withdrawn and rejected here. */
+            if (!running && tasks.remove(task)) {
+                throw new IllegalStateException("The event loop group has been closed.");
+            }
+            if (parked.compareAndSet(true, false)) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return thread.getName();
+        }
+
+        private void run() {
+            while (true) {
+                int n = 0;
+                Runnable task;
+                while (n < BATCH_SIZE && (task = tasks.poll()) != null) {
+                    runTask(task);
+                    n++;
+                }
+                if (n > 0) {
+                    continue;
+                }
+                if (!running) {
+                    /* Tasks added after the queue was found empty but before the group was closed. */
+                    while ((task = tasks.poll()) != null) {
+                        runTask(task);
+                    }
+                    return;
+                }
+
+                /* Announce parking before checking the queue again, so a concurrent execute() can not be missed. */
+                parked.set(true);
+                if (tasks.isEmpty() && running) {
+                    LockSupport.park(this);
+                }
+                parked.set(false);
+            }
+        }
+
+        private void runTask(Runnable task) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                LOGGER.warn("Event loop task {} raised an exception.", task, t);
+            }
+        }
+    }
+}
@@ -0,0 +1,496 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm;
+
+import de.am.common.sm.annotation.OnEntry;
+import de.am.common.sm.annotation.OnExit;
+import de.am.common.sm.annotation.Timeout;
+import de.am.common.sm.event.Event;
+import de.am.common.sm.exception.StateMachineCreationException;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Reflection-free description of the transitions and hooks declared by a handler class.
+ * <p>
+ * {@link StateMachineFactory} scans each handler class once into this form and then binds it to the runtime
+ * {@link State}s. The methods are kept in the same order the factory has always used (sorted by their string form), so
+ * transitions with equal weight keep their relative priority.
+ * </p>
+ * <p>
+ * The metadata can be written to a compact binary form and read again, which skips the annotation scan. Fields and
+ * methods are stored by name and signature and are resolved again when reading.
+ * </p>
+ *
+ * @author Martin Absmeier
+ */
+final class HandlerMetadata {
+
+    private static final String ERROR_MESSAGE_METHOD = "Error encountered when processing method ";
+
+    private static final String ERROR_MESSAGE_FIELD = "Error encountered when processing field ";
+
+    private final List<StateDeclaration> states;
+
+    private final List<MethodMetadata> methods;
+
+    private HandlerMetadata(List<StateDeclaration> states, List<MethodMetadata> methods) {
+        this.states = states;
+        this.methods = methods;
+    }
+
+    /**
+     * Scans the declared fields of the specified class for state declarations and its declared methods for transition
+     * and hook annotations.
+     *
+     * @param clazz                 the handler class.
+     * @param transitionAnnotation  the annotation used for single transition declarations.
+     * @param transitionsAnnotation the annotation used for grouped transition declarations.
+     * @return the metadata of the class.
+     */
+    static HandlerMetadata scan(Class<?> clazz, Class<? extends Annotation> transitionAnnotation,
+                                Class<? extends Annotation> transitionsAnnotation) {
+        List<StateDeclaration> states = new ArrayList<>();
+        for (Field field : StateMachineFactory.getFields(clazz)) {
+            states.add(StateDeclaration.of(field));
+        }
+
+        List<MethodMetadata> methods = new ArrayList<>();
+        for (Method method : getAndSortMethods(clazz)) {
+            String onEntry = method.isAnnotationPresent(OnEntry.class) ? method.getAnnotation(OnEntry.class).value() : null;
+            String onExit = method.isAnnotationPresent(OnExit.class) ? method.getAnnotation(OnExit.class).value() : null;
+            List<TransitionMetadata> transitions = getTransitions(transitionAnnotation, transitionsAnnotation, method);
+
+            if (onEntry != null || onExit != null || !transitions.isEmpty()) {
+                methods.add(new MethodMetadata(method, onEntry, onExit, transitions));
+            }
+        }
+        return new HandlerMetadata(Collections.unmodifiableList(states), Collections.unmodifiableList(methods));
+    }
+
+    /**
+     * Returns the states declared by the handler class.
+     *
+     * @return the state declarations in field declaration order.
+     */
+    List<StateDeclaration> getStates() {
+        return states;
+    }
+
+    /**
+     * Returns the annotated methods of the handler class.
+     *
+     * @return the methods in registration order.
+     */
+    List<MethodMetadata> getMethods() {
+        return methods;
+    }
+
+    /**
+     * Writes this metadata in binary form.
+     *
+     * @param out the output to write to.
+     * @throws IOException if writing fails.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(states.size());
+        for (StateDeclaration state : states) {
+            out.writeUTF(state.field.getName());
+            out.writeUTF(state.id);
+            out.writeUTF(state.parent);
+            out.writeBoolean(state.timeout != null);
+            if (state.timeout != null) {
+                out.writeLong(state.timeout.getSeconds());
+                out.writeInt(state.timeout.getNano());
+                out.writeUTF(state.timeoutEventId);
+            }
+            writeStrings(out, state.deferredEventIds);
+            out.writeBoolean(state.terminal);
+        }
+
+        out.writeInt(methods.size());
+        for (MethodMetadata method : methods) {
+            out.writeUTF(signature(method.method));
+            writeNullableString(out, method.onEntry);
+            writeNullableString(out, method.onExit);
+            out.writeInt(method.transitions.size());
+            for (TransitionMetadata transition : method.transitions) {
+                /* Event ids are always strings, see getEvent(Object). */
+                out.writeInt(transition.on.length);
+                for (Object on : transition.on) {
+                    out.writeUTF((String) on);
+                }
+                writeStrings(out, transition.in);
+                writeNullableString(out, transition.next);
+                out.writeInt(transition.weight);
+            }
+        }
+    }
+
+    /**
+     * Reads metadata written by {@link #write(DataOutput)} for the specified class.
+     *
+     * @param in    the input to read from.
+     * @param clazz the handler class.
+     * @return the metadata of the class.
+     * @throws IOException                   if reading fails.
+     * @throws StateMachineCreationException if a field or method does not exist anymore.
+     */
+    static HandlerMetadata read(DataInput in, Class<?> clazz) throws IOException {
+        List<StateDeclaration> states = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            Field field = getDeclaredField(clazz, in.readUTF());
+            String id = in.readUTF();
+            String parent = in.readUTF();
+            Duration timeout = null;
+            String timeoutEventId = null;
+            if (in.readBoolean()) {
+                timeout = Duration.ofSeconds(in.readLong(), in.readInt());
+                timeoutEventId = in.readUTF();
+            }
+            states.add(new StateDeclaration(field, id, parent, timeout, timeoutEventId, readStrings(in), in.readBoolean()));
+        }
+
+        Map<String, Method> declaredMethods = new HashMap<>();
+        for (Method method : clazz.getDeclaredMethods()) {
+            declaredMethods.put(signature(method), method);
+        }
+        List<MethodMetadata> methods = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            String signature = in.readUTF();
+            Method method = declaredMethods.get(signature);
+            if (method == null) {
+                throw new StateMachineCreationException(ERROR_MESSAGE_METHOD + clazz.getName() + "." + signature + ". Method not found.");
+            }
+            String onEntry = readNullableString(in);
+            String onExit = readNullableString(in);
+            List<TransitionMetadata> transitions = new ArrayList<>();
+            for (int j = in.readInt(); j > 0; j--) {
+                Object[] on = new Object[in.readInt()];
+                for (int k = 0; k < on.length; k++) {
+                    on[k] = in.readUTF();
+                }
+                transitions.add(new TransitionMetadata(on, readStrings(in), readNullableString(in), in.readInt()));
+            }
+            methods.add(new MethodMetadata(method, onEntry, onExit, transitions));
+        }
+        return new HandlerMetadata(Collections.unmodifiableList(states), Collections.unmodifiableList(methods));
+    }
+
+    /**
+     * Returns a checksum of the class file of the specified class, used to detect stale binary metadata.
+     *
+     * @param clazz the handler class.
+     * @return the CRC32 of the class file or -1 if the class file can not be read.
+     */
+    static long fingerprint(Class<?> clazz) {
+        String name = clazz.getName();
+        try (InputStream in = clazz.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+            if (in == null) {
+                return -1;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(in.readAllBytes());
+            return crc.getValue();
+        } catch (IOException ioe) {
+            return -1;
+        }
+    }
+
+    // #################################################################################################################
+    private static String signature(Method method) {
+        StringBuilder sb = new StringBuilder(method.getName()).append('(');
+        Class<?>[] types = method.getParameterTypes();
+        for (int i = 0; i < types.length; i++) {
+            sb.append(i == 0 ? "" : ",").append(types[i].getName());
+        }
+        return sb.append(')').toString();
+    }
+
+    private static Field getDeclaredField(Class<?> clazz, String name) {
+        try {
+            return clazz.getDeclaredField(name);
+        } catch (NoSuchFieldException nsfe) {
+            throw new StateMachineCreationException(ERROR_MESSAGE_FIELD + clazz.getName() + "." + name + ". Field not found.", nsfe);
+        }
+    }
+
+    private static void writeStrings(DataOutput out, String[] values) throws IOException {
+        out.writeInt(values.length);
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String[] readStrings(DataInput in) throws IOException {
+        String[] values = new String[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readUTF();
+        }
+        return values;
+    }
+
+    private static void writeNullableString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static Method[] getAndSortMethods(Class<?> clazz) {
+        /* Method.toString() is expensive, so every key is built once instead of on each comparison. */
+        Map<String, Method> sorted = new TreeMap<>();
+        for (Method method : clazz.getDeclaredMethods()) {
+            sorted.put(method.toString(), method);
+        }
+        return sorted.values().toArray(Method[]::new);
+    }
+
+    private static List<TransitionMetadata> getTransitions(Class<? extends Annotation> transitionAnnotation,
+                                                           Class<? extends Annotation> transitionsAnnotation,
+                                                           Method method) {
+        List<TransitionMetadata> transitions = new ArrayList<>();
+
+        if (method.isAnnotationPresent(transitionAnnotation)) {
+            transitions.add(toMetadata(transitionAnnotation, method.getAnnotation(transitionAnnotation), method));
+        }
+        if (method.isAnnotationPresent(transitionsAnnotation)) {
+            Annotation[] annotations = getParameter(transitionsAnnotation, method.getAnnotation(transitionsAnnotation), "value",
+                Annotation[].class, "Transitions");
+            for (Annotation annotation : annotations) {
+                transitions.add(toMetadata(transitionAnnotation, annotation, method));
+            }
+        }
+
+        return transitions;
+    }
+
+    private static TransitionMetadata toMetadata(Class<? extends Annotation> transitionClazz, Annotation annotation, Method method) {
+        Object[] eventIds = getParameter(transitionClazz, annotation, "on", Object[].class, "Transition");
+        String[] in = getParameter(transitionClazz, annotation, "in", String[].class, "Transition");
+        String next = getParameter(transitionClazz, annotation, "next", String.class, "Transition");
+        int weight = getParameter(transitionClazz, annotation, "weight", Integer.TYPE, "Transition");
+
+        if (eventIds.length == 0) {
+            throw new StateMachineCreationException(ERROR_MESSAGE_METHOD + method + ". No event ids specified.");
+        }
+        if (in.length == 0) {
+            throw new StateMachineCreationException(ERROR_MESSAGE_METHOD + method + ". No states specified.");
+        }
+
+        Object[] on = new Object[eventIds.length];
+        for (int i = 0; i < eventIds.length; i++) {
+            on[i] = getEvent(eventIds[i]);
+        }
+
+        return new TransitionMetadata(on, in, next, weight);
+    }
+
+    private static Object getEvent(Object event) {
+        if (isNull(event)) {
+            event = Event.WILDCARD_EVENT_ID;
+        }
+        if (!(event instanceof String)) {
+            event = event.toString();
+        }
+        return event;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T getParameter(Class<? extends Annotation> annotationClazz, Annotation annotation, String name,
+                                      Class<T> returnType, String kind) {
+        try {
+            Method m = annotationClazz.getMethod(name);
+            if (!returnType.isAssignableFrom(m.getReturnType())) {
+                throw new NoSuchMethodException();
+            }
+            return (T) m.invoke(annotation);
+        } catch (IllegalAccessException | IllegalArgumentException | NoSuchMethodException | SecurityException |
+                 InvocationTargetException ex) {
+            String message = "Could not get parameter '" + name + "' from " + kind + " annotation " + annotationClazz;
+            throw new StateMachineCreationException(message, ex);
+        }
+    }
+
+    /**
+     * A state declared by a {@link de.am.common.sm.annotation.State} annotated field.
+     */
+    static final class StateDeclaration {
+
+        private final Field field;
+        private final String id;
+        private final String parent;
+        private final Duration timeout;
+        private final String timeoutEventId;
+        private final String[] deferredEventIds;
+        private final boolean terminal;
+
+        private StateDeclaration(Field field, String id, String parent, Duration timeout, String timeoutEventId,
+                                 String[] deferredEventIds, boolean terminal) {
+            this.field = field;
+            this.id = id;
+            this.parent = parent;
+            this.timeout = timeout;
+            this.timeoutEventId = timeoutEventId;
+            this.deferredEventIds = deferredEventIds;
+            this.terminal = terminal;
+        }
+
+        /**
+         * Reads the state id and parent id declared by the specified field.
+         *
+         * @param field the annotated field.
+         * @return the declaration.
+         */
+        static StateDeclaration of(Field field) {
+            String id;
+            try {
+                id = (String) field.get(null);
+            } catch (IllegalAccessException iae) {
+                throw new StateMachineCreationException(ERROR_MESSAGE_FIELD + field + ".", iae);
+            }
+            de.am.common.sm.annotation.State annotation = field.getAnnotation(de.am.common.sm.annotation.State.class);
+
+            Timeout timeout = field.getAnnotation(Timeout.class);
+            if (timeout == null) {
+                return new StateDeclaration(field, id, annotation.value(), null, null, annotation.defer(), annotation.terminal());
+            }
+            if (timeout.value() <= 0) {
+                throw new StateMachineCreationException(ERROR_MESSAGE_FIELD + field + ". The timeout must be greater than 0.");
+            }
+            return new StateDeclaration(field, id, annotation.value(), Duration.of(timeout.value(), timeout.unit().toChronoUnit()),
+                timeout.event(), annotation.defer(), annotation.terminal());
+        }
+
+        String getId() {
+            return id;
+        }
+
+        String getParent() {
+            return parent;
+        }
+
+        Duration getTimeout() {
+            return timeout;
+        }
+
+        String getTimeoutEventId() {
+            return timeoutEventId;
+        }
+
+        String[] getDeferredEventIds() {
+            return deferredEventIds;
+        }
+
+        boolean isTerminal() {
+            return terminal;
+        }
+
+        @Override
+        public String toString() {
+            return field.toString();
+        }
+    }
+
+    /**
+     * An annotated handler method together with its hook and transition declarations.
+     */
+    static final class MethodMetadata {
+
+        private final Method method;
+        private final String onEntry;
+        private final String onExit;
+        private final List<TransitionMetadata> transitions;
+
+        MethodMetadata(Method method, String onEntry, String onExit, List<TransitionMetadata> transitions) {
+            this.method = method;
+            this.onEntry = onEntry;
+            this.onExit = onExit;
+            this.transitions = Collections.unmodifiableList(transitions);
+        }
+
+        Method getMethod() {
+            return method;
+        }
+
+        String getOnEntry() {
+            return onEntry;
+        }
+
+        String getOnExit() {
+            return onExit;
+        }
+
+        List<TransitionMetadata> getTransitions() {
+            return transitions;
+        }
+    }
+
+    /**
+     * The values of a single transition annotation.
+     */
+    static final class TransitionMetadata {
+
+        private final Object[] on;
+        private final String[] in;
+        private final String next;
+        private final int weight;
+
+        TransitionMetadata(Object[] on, String[] in, String next, int weight) {
+            this.on = on;
+            this.in = in;
+            this.next = next;
+            this.weight = weight;
+        }
+
+        Object[] getOn() {
+            return on;
+        }
+
+        String[] getIn() {
+            return in;
+        }
+
+        String getNext() {
+            return next;
+        }
+
+        int getWeight() {
+            return weight;
+        }
+    }
+}
@@ -18,13 +18,22 @@ package de.am.common.sm;
 import de.am.common.sm.event.Event;
 import de.am.common.sm.transition.SelfTransition;
 import de.am.common.sm.transition.Transition;
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represents a state in a {@link StateMachine}.
@@ -34,8 +43,10 @@ import java.util.Objects;
  * state and so on until either a transition matches or no more parents remain.
  * </p>
  * <p>
- * States can also define entry and exit {@link SelfTransition self transitions}. Most consumers define states through
- * the {@link de.am.common.sm.annotation.State} annotation and let {@link StateMachineFactory} build the runtime model.
+ * States can also define entry and exit {@link SelfTransition self transitions}, a timeout and deferred events, and
+ * may be terminal, which finishes a {@link de.am.common.sm.context.StateContext} entering it. Most consumers define
+ * states through the {@link de.am.common.sm.annotation.State} annotation and let {@link StateMachineFactory} build the
+ * runtime model.
  * </p>
  *
  * @author Martin Absmeier
@@ -46,14 +57,77 @@ public class State {
     private final String id;
     @EqualsAndHashCode.Exclude
     private final State parent;
+    /* This state and its ancestors, starting with the root. */
     @EqualsAndHashCode.Exclude
+    @Getter(AccessLevel.PACKAGE)
+    private final State[] path;
+    @EqualsAndHashCode.Exclude
+    @Getter(AccessLevel.NONE)
     private final List<TransitionHolder> transitionHolders = new ArrayList<>();
     @EqualsAndHashCode.Exclude
-    private List<Transition> transitions = Collections.emptyList();
+    @Getter(AccessLevel.NONE)
+    private final List<Transition> transitions = new ArrayList<>();
+    /* Set when a transition was appended behind one with a higher weight, cleared by sortTransitions(). */
+    @EqualsAndHashCode.Exclude
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private boolean unsorted = false;
     @EqualsAndHashCode.Exclude
+    @Getter(AccessLevel.NONE)
     private final List<SelfTransition> onEntries = new ArrayList<>();
     @EqualsAndHashCode.Exclude
+    @Getter(AccessLevel.NONE)
     private final List<SelfTransition> onExits = new ArrayList<>();
+    /* Unmodifiable views, created once instead of on every call. */
+    @EqualsAndHashCode.Exclude
+    @Getter(AccessLevel.NONE)
+    private final List<Transition> transitionsView = Collections.unmodifiableList(transitions);
+    @EqualsAndHashCode.Exclude
+    @Getter(AccessLevel.NONE)
+    private final List<SelfTransition> onEntriesView = Collections.unmodifiableList(onEntries);
+    @EqualsAndHashCode.Exclude
+    @Getter(AccessLevel.NONE)
+    private final List<SelfTransition> onExitsView = Collections.unmodifiableList(onExits);
+    @EqualsAndHashCode.Exclude
+    @Setter(AccessLevel.NONE)
+    private Duration timeout = null;
+    @EqualsAndHashCode.Exclude
+    @Setter(AccessLevel.NONE)
+    private Object timeoutEventId = null;
+    @EqualsAndHashCode.Exclude
+    private final Set<Object> deferredEventIds = new HashSet<>();
+    @EqualsAndHashCode.Exclude
+    @Setter(AccessLevel.NONE)
+    private boolean terminal = false;
+    /* Set by freeze(), after which this state can not be modified anymore. Volatile, so a state frozen by one thread is
+     * seen complete by all others. transitionArray is written last and marks the state as frozen. */
+    @EqualsAndHashCode.Exclude
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile Transition[] transitionArray = null;
+    @EqualsAndHashCode.Exclude
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile SelfTransition[] onEntryArray = null;
+    @EqualsAndHashCode.Exclude
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile SelfTransition[] onExitArray = null;
+    /* Counts dispatches until the transitions are indexed by event id. A frozen state may be dispatched to by several
+     * threads at once, e.g. the loop threads of an EventLoopGroup or machines sharing it. */
+    @EqualsAndHashCode.Exclude
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final AtomicInteger dispatchCount = new AtomicInteger();
+    @EqualsAndHashCode.Exclude
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile TransitionIndex transitionIndex = null;
+    /* The ordinal of this state in the StateTable it was compiled into last. */
+    @EqualsAndHashCode.Exclude
+    @Getter(AccessLevel.PACKAGE)
+    @Setter(AccessLevel.PACKAGE)
+    private volatile StateTable.Slot tableSlot = null;
 
     /**
      * Creates a new {@link State} with the specified id.
@@ -73,8 +147,41 @@ public class State {
     public State(String id, State parent) {
         this.id = id;
         this.parent = parent;
+
+        if (parent == null) {
+            this.path = new State[]{this};
+        } else {
+            this.path = Arrays.copyOf(parent.path, parent.path.length + 1);
+            this.path[parent.path.length] = this;
+        }
     }
 
+    /**
+     * Freezes this {@link State}. Afterwards the {@link Transition}s and entry and exit {@link SelfTransition}s are kept
+     * in arrays which are iterated while dispatching, and any attempt to modify this {@link State} raises an
+     * {@link IllegalStateException}. Called by {@link StateMachine} for all of its {@link State}s, which makes them safe
+     * to share between threads. Calling this method again has no effect.
+     *
+     * @return this {@link State}.
+     */
+    public State freeze() {
+        if (!isFrozen()) {
+            sortTransitions();
+            onEntryArray = onEntries.toArray(new SelfTransition[0]);
+            onExitArray = onExits.toArray(new SelfTransition[0]);
+            transitionArray = transitions.toArray(new Transition[0]);
+        }
+        return this;
+    }
+
+    /**
+     * Returns whether this {@link State} has been {@link #freeze() frozen}.
+     *
+     * @return <code>true</code> if frozen.
+     */
+    public boolean isFrozen() {
+        return transitionArray != null;
+    }
 
     /**
      * Returns an unmodifiable {@link List} of {@link Transition}s going out from this {@link State}.
@@ -82,7 +189,63 @@ public class State {
      * @return the {@link Transition}s.
      */
     public List<Transition> getTransitions() {
-        return Collections.unmodifiableList(transitions);
+        sortTransitions();
+        return transitionsView;
+    }
+
+    /**
+     * Replaces the {@link Transition}s going out from this {@link State}. The {@link Transition}s keep the specified
+     * order and get weight 0.
+     *
+     * @param transitions the {@link Transition}s.
+     * @throws IllegalStateException if this {@link State} is frozen.
+     * @deprecated Use {@link #addTransition(Transition, int)}, which keeps the {@link Transition}s ordered by weight.
+     */
+    @Deprecated
+    public void setTransitions(List<Transition> transitions) {
+        Objects.requireNonNull(transitions, "NULL is not permitted as value for 'transitions' parameter.");
+        checkNotFrozen();
+
+        transitionHolders.clear();
+        this.transitions.clear();
+        unsorted = false;
+        for (Transition transition : transitions) {
+            addTransition(transition);
+        }
+    }
+
+    /**
+     * Returns an unmodifiable {@link List} of the weighted {@link Transition}s of this {@link State}.
+     *
+     * @return the {@link Transition}s with their weights.
+     * @deprecated Use {@link #getTransitions()}, the weights are internal.
+     */
+    @Deprecated
+    public List<?> getTransitionHolders() {
+        sortTransitions();
+        return Collections.unmodifiableList(transitionHolders);
+    }
+
+    /**
+     * Returns an unmodifiable {@link List} of the entry {@link SelfTransition}s.
+     *
+     * @return the {@link SelfTransition}s.
+     * @deprecated Use {@link #getOnEntrySelfTransitions()}.
+     */
+    @Deprecated
+    public List<SelfTransition> getOnEntries() {
+        return onEntriesView;
+    }
+
+    /**
+     * Returns an unmodifiable {@link List} of the exit {@link SelfTransition}s.
+     *
+     * @return the {@link SelfTransition}s.
+     * @deprecated Use {@link #getOnExitSelfTransitions()}.
+     */
+    @Deprecated
+    public List<SelfTransition> getOnExits() {
+        return onExitsView;
     }
 
     /**
@@ -91,7 +254,7 @@ public class State {
      * @return the {@link SelfTransition}s.
      */
     public List<SelfTransition> getOnEntrySelfTransitions() {
-        return Collections.unmodifiableList(onEntries);
+        return onEntriesView;
     }
 
     /**
@@ -100,7 +263,7 @@ public class State {
      * @return the {@link SelfTransition}s.
      */
     public List<SelfTransition> getOnExitSelfTransitions() {
-        return Collections.unmodifiableList(onExits);
+        return onExitsView;
     }
 
     /**
@@ -111,6 +274,7 @@ public class State {
      */
     public State addOnEntrySelfTransaction(SelfTransition onEntrySelfTransaction) {
         Objects.requireNonNull(onEntrySelfTransaction, "NULL is not permitted as value for 'onEntrySelfTransaction' parameter.");
+        checkNotFrozen();
 
         onEntries.add(onEntrySelfTransaction);
         return this;
@@ -124,16 +288,77 @@ public class State {
      */
     public State addOnExitSelfTransaction(SelfTransition onExitSelfTransaction) {
         Objects.requireNonNull(onExitSelfTransaction, "NULL is not permitted as value for 'onExitSelfTransaction' parameter.");
+        checkNotFrozen();
 
         onExits.add(onExitSelfTransaction);
         return this;
     }
 
-    private void updateTransitions() {
-        transitions = new ArrayList<>(transitionHolders.size());
-        for (TransitionHolder holder : transitionHolders) {
-            transitions.add(holder.transition);
+    /**
+     * Sets the time a {@link StateMachine} may stay in this {@link State}. Whenever this {@link State} is entered a timer
+     * is armed which fires an {@link Event} with the specified id unless the {@link State} is left before.
+     *
+     * @param timeout the timeout or <code>null</code> to disable the timeout.
+     * @param eventId the id of the {@link Event} fired when the timeout expires.
+     * @return this {@link State}.
+     */
+    public State setTimeout(Duration timeout, Object eventId) {
+        if (timeout != null) {
+            Objects.requireNonNull(eventId, "NULL is not permitted as value for 'eventId' parameter.");
         }
+        checkNotFrozen();
+
+        this.timeout = timeout;
+        this.timeoutEventId = timeout != null ? eventId : null;
+        return this;
+    }
+
+    /**
+     * Sets whether this {@link State} is terminal. A {@link de.am.common.sm.context.StateContext} entering a terminal
+     * {@link State} is finished, a timeout of the {@link State} is never armed.
+     *
+     * @param terminal <code>true</code> if terminal.
+     * @return this {@link State}.
+     */
+    public State setTerminal(boolean terminal) {
+        checkNotFrozen();
+
+        this.terminal = terminal;
+        return this;
+    }
+
+    /**
+     * Returns an unmodifiable {@link Set} of the ids of the {@link Event}s deferred by this {@link State}.
+     *
+     * @return the deferred event ids.
+     */
+    public Set<Object> getDeferredEventIds() {
+        return Collections.unmodifiableSet(deferredEventIds);
+    }
+
+    /**
+     * Adds the id of an {@link Event} deferred by this {@link State}. If no {@link Transition} of this {@link State} can
+     * handle such an {@link Event}, the {@link StateMachine} parks it and processes it again after the next state change.
+     *
+     * @param eventId the id of the {@link Event} to defer.
+     * @return this {@link State}.
+     */
+    public State addDeferredEventId(Object eventId) {
+        Objects.requireNonNull(eventId, "NULL is not permitted as value for 'eventId' parameter.");
+        checkNotFrozen();
+
+        deferredEventIds.add(eventId);
+        return this;
+    }
+
+    /**
+     * Returns whether this {@link State} defers {@link Event}s with the specified id.
+     *
+     * @param eventId the id of the {@link Event}.
+     * @return <code>true</code> if deferred.
+     */
+    public boolean isDeferred(Object eventId) {
+        return !deferredEventIds.isEmpty() && deferredEventIds.contains(eventId);
     }
 
     /**
@@ -158,10 +383,15 @@ public class State {
      */
     public State addTransition(Transition transition, int weight) {
         Objects.requireNonNull(transition, "NULL is not permitted as value for 'transition' parameter.");
+        checkNotFrozen();
 
+        /* Append only, the transitions are sorted once when they are read or the state is frozen. */
+        int size = transitionHolders.size();
+        if (size > 0 && transitionHolders.get(size - 1).weight > weight) {
+            unsorted = true;
+        }
         transitionHolders.add(new TransitionHolder(transition, weight));
-        Collections.sort(transitionHolders);
-        updateTransitions();
+        transitions.add(transition);
 
         return this;
     }
@@ -171,8 +401,66 @@ public class State {
         return "id: ".concat(id);
     }
 
+    Transition[] getTransitionArray() {
+        if (isFrozen()) {
+            return transitionArray;
+        }
+        sortTransitions();
+        return transitions.toArray(new Transition[0]);
+    }
+
+    /* Returns the transitions which may handle the event id. Once the state has been frozen and dispatched to
+     * compileThreshold times, they are taken from an index which is built once and then published in one write. */
+    Transition[] getTransitionArray(Object eventId, int compileThreshold) {
+        TransitionIndex index = transitionIndex;
+        if (index != null) {
+            return index.get(eventId);
+        }
+        if (!isFrozen()) {
+            return getTransitionArray();
+        }
+        if (dispatchCount.incrementAndGet() >= compileThreshold) {
+            /* Threads reaching the threshold at the same time build equal indexes, one of which is kept. */
+            index = new TransitionIndex(transitionArray);
+            transitionIndex = index;
+            return index.get(eventId);
+        }
+        return transitionArray;
+    }
+
+    boolean isIndexed() {
+        return transitionIndex != null;
+    }
+
+    SelfTransition[] getOnEntryArray() {
+        return isFrozen() ? onEntryArray : onEntries.toArray(new SelfTransition[0]);
+    }
+
+    SelfTransition[] getOnExitArray() {
+        return isFrozen() ? onExitArray : onExits.toArray(new SelfTransition[0]);
+    }
+
+    // #################################################################################################################
+    /* Sorts the transitions by weight. The sort is stable, so transitions of equal weight keep their insertion order. */
+    private void sortTransitions() {
+        if (unsorted) {
+            transitionHolders.sort(Comparator.comparingInt(holder -> holder.weight));
+            transitions.clear();
+            for (TransitionHolder holder : transitionHolders) {
+                transitions.add(holder.transition);
+            }
+            unsorted = false;
+        }
+    }
+
+    private void checkNotFrozen() {
+        if (isFrozen()) {
+            throw new IllegalStateException("State '" + id + "' is frozen and can not be modified anymore.");
+        }
+    }
+
     @EqualsAndHashCode
-    private static class TransitionHolder implements Comparable<TransitionHolder> {
+    private static class TransitionHolder {
 
         @EqualsAndHashCode.Exclude
         Transition transition;
@@ -183,10 +471,5 @@ public class State {
             this.weight = weight;
         }
 
-        @Override
-        public int compareTo(TransitionHolder other) {
-            return Integer.compare(weight, other.weight);
-        }
-
     }
 }
\ No newline at end of file
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm;
+
+import de.am.common.sm.context.StateContext;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Index of the {@link StateContext}s of a {@link StateMachine} by the id of their current {@link State}.
+ * <p>
+ * The index is enabled with {@link StateMachine#enableStateIndex()} and then maintained by the {@link StateMachine}
+ * whenever a {@link StateContext} changes its state. A context which has not changed its state since the index was
+ * enabled is added once, when it processes its next {@link de.am.common.sm.event.Event}, and is not known before.
+ * Contexts entering a {@link State#isTerminal() terminal} {@link State} are removed, other contexts can be removed
+ * with {@link #remove(StateContext)} once they are not used anymore. The index only holds weak references, contexts
+ * which are abandoned without being removed are dropped after they have been garbage collected.
+ * </p>
+ * <p>
+ * Counting is a constant time operation. The contexts of one state can be iterated without looking at the contexts of
+ * any other state, the iteration is weakly consistent while the machine keeps processing events.
+ * </p>
+ *
+ * @author Martin Absmeier
+ */
+public final class StateIndex {
+
+    /* Contexts are compared by identity, their equals() and hashCode() depend on their mutable state. */
+    private final Map<ContextKey, Position> positions = new ConcurrentHashMap<>();
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final ReferenceQueue<StateContext> collected = new ReferenceQueue<>();
+
+    StateIndex() {
+    }
+
+    /**
+     * Returns the number of indexed {@link StateContext}s whose current {@link State} has the specified id.
+     *
+     * @param stateId the id of the {@link State}.
+     * @return the number of {@link StateContext}s.
+     */
+    public long count(String stateId) {
+        expungeCollected();
+        Bucket bucket = buckets.get(stateId);
+        return bucket != null ? bucket.count.sum() : 0;
+    }
+
+    /**
+     * Returns the number of indexed {@link StateContext}s per {@link State} id. {@link State}s without contexts are
+     * omitted.
+     *
+     * @return the counts sorted by {@link State} id.
+     */
+    public Map<String, Long> counts() {
+        expungeCollected();
+        Map<String, Long> counts = new TreeMap<>();
+        buckets.forEach((stateId, bucket) -> {
+            long count = bucket.count.sum();
+            if (count > 0) {
+                counts.put(stateId, count);
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * Returns the indexed {@link StateContext}s whose current {@link State} has the specified id.
+     *
+     * @param stateId the id of the {@link State}.
+     * @return an unmodifiable, weakly consistent view of the {@link StateContext}s.
+     */
+    public Collection<StateContext> contexts(String stateId) {
+        expungeCollected();
+        Bucket bucket = buckets.get(stateId);
+        return bucket != null ? bucket.view : Collections.emptySet();
+    }
+
+    /**
+     * Removes the specified {@link StateContext} from this index. It is added again when it changes its state.
+     *
+     * @param context the {@link StateContext} to remove.
+     */
+    public void remove(StateContext context) {
+        requireNonNull(context, "NULL is not permitted as value for 'context' parameter.");
+
+        expungeCollected();
+        positions.computeIfPresent(new ContextKey(context, null), (key, position) -> {
+            buckets.get(position.stateId).remove(position.key);
+            return null;
+        });
+    }
+
+    void update(StateContext context, State state) {
+        expungeCollected();
+        String stateId = state.getId();
+        /* Moving between buckets happens inside compute(), concurrent updates of the same context can not interleave. */
+        positions.compute(new ContextKey(context, collected), (key, position) -> {
+            if (position != null && position.stateId.equals(stateId)) {
+                return position;
+            }
+            ContextKey stored = position != null ? position.key : key;
+            if (position != null) {
+                buckets.get(position.stateId).remove(stored);
+            }
+            buckets.computeIfAbsent(stateId, id -> new Bucket()).add(stored);
+            return new Position(stored, stateId);
+        });
+    }
+
+    // #################################################################################################################
+    private void expungeCollected() {
+        Reference<? extends StateContext> reference;
+        while ((reference = collected.poll()) != null) {
+            positions.computeIfPresent((ContextKey) reference, (key, position) -> {
+                buckets.get(position.stateId).remove(position.key);
+                return null;
+            });
+        }
+    }
+
+    private static final class Bucket {
+
+        private final LongAdder count = new LongAdder();
+        private final Set<ContextKey> keys = ConcurrentHashMap.newKeySet();
+        private final Collection<StateContext> view = new AbstractCollection<>() {
+            @Override
+            public Iterator<StateContext> iterator() {
+                return keys.stream().map(ContextKey::get).filter(Objects::nonNull).iterator();
+            }
+
+            @Override
+            public int size() {
+                return (int) count.sum();
+            }
+        };
+
+        void add(ContextKey key) {
+            if (keys.add(key)) {
+                count.increment();
+            }
+        }
+
+        void remove(ContextKey key) {
+            if (keys.remove(key)) {
+                count.decrement();
+            }
+        }
+    }
+
+    /* A context keeps the key it was indexed with first, the key enqueued after collection then finds its position. */
+    private record Position(ContextKey key, String stateId) {
+    }
+
+    private static final class ContextKey extends WeakReference<StateContext> {
+
+        private final int hash;
+
+        ContextKey(StateContext context, ReferenceQueue<StateContext> queue) {
+            super(context, queue);
+            this.hash = System.identityHashCode(context);
+        }
+
+        /* A collected key is only equal to itself, so it can still be removed after its context is gone. */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ContextKey)) {
+                return false;
+            }
+            StateContext context = get();
+            return context != null && context == ((ContextKey) o).get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -16,6 +16,7 @@
 package de.am.common.sm;
 
 import de.am.common.sm.context.StateContext;
+import de.am.common.sm.context.StateContextLookup;
 import de.am.common.sm.event.Event;
 import de.am.common.sm.exception.BreakAndCallException;
 import de.am.common.sm.exception.BreakAndContinueException;
@@ -23,18 +24,41 @@ import de.am.common.sm.exception.BreakAndGotoException;
 import de.am.common.sm.exception.BreakAndReturnException;
 import de.am.common.sm.exception.NoSuchStateException;
 import de.am.common.sm.exception.UnhandledEventException;
+import de.am.common.sm.timer.TimerHandle;
+import de.am.common.sm.timer.TimerTask;
+import de.am.common.sm.timer.TimingWheel;
 import de.am.common.sm.transition.SelfTransition;
 import de.am.common.sm.transition.Transition;
 import lombok.Synchronized;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
 
 /**
  * Runtime engine for a state machine composed of {@link State states}, {@link Transition transitions},
@@ -46,8 +70,17 @@ import java.util.Stack;
  * then driven through {@link StateMachineProxyBuilder}.
  * </p>
  * <p>
- * The engine supports hierarchical state lookup, entry and exit hooks, re-entrant event delivery through
- * an event queue, and call/return style control flow via {@link StateControl}.
+ * The engine supports hierarchical state lookup, entry and exit hooks run along the path through the least common
+ * ancestor of the source and target state, re-entrant event delivery through
+ * an event queue, call/return style control flow via {@link StateControl}, {@link State#getTimeout() state
+ * timeouts}, which fire an {@link Event} through a shared {@link TimingWheel} unless the state is left before, and
+ * {@link State#getDeferredEventIds() deferred events}, which are parked per {@link StateContext} and processed again
+ * after the next state change.
+ * </p>
+ * <p>
+ * The {@link State}s are {@link State#freeze() frozen} when the machine is created, so it can be shared between
+ * threads without further synchronization of the state graph. A running machine can be given new {@link State}s with
+ * {@link #redefine(Collection, String, Function)}, existing {@link StateContext}s are migrated on their next event.
  * </p>
  *
  * @author Martin Absmeier
@@ -56,16 +89,55 @@ public final class StateMachine {
 
     private static final Logger LOGGER = LogManager.getLogger(StateMachine.class);
 
-    private static final String CALL_STACK = StateMachine.class.getName() + ".callStack";
+    /**
+     * Default maximum number of deferred {@link Event}s per {@link StateContext}.
+     */
+    public static final int DEFAULT_MAX_DEFERRED_EVENTS = 1024;
+    /**
+     * The default number of dispatches to a {@link State} after which its {@link Transition}s are indexed by event id.
+     */
+    public static final int DEFAULT_COMPILE_THRESHOLD = 1000;
+    /* Number of contexts a broadcast handles per acquisition of the lock. */
+    private static final int BROADCAST_CHUNK_SIZE = 1024;
+    /* Number of expired timers processed per acquisition of the lock. */
+    private static final int TIMER_BATCH_SIZE = 256;
+
+    /* Replaced as a whole by redefine(), so a dispatch works with a single consistent definition. */
+    private volatile Definition definition;
+
+    private final Object definitionLock = new Object();
 
-    private final State startState;
+    private volatile StateIndex stateIndex = null;
 
-    private final Map<String, State> states;
+    /* The open group processing the events of this machine, if any. */
+    private volatile EventLoopGroup eventLoopGroup = null;
 
     private final ThreadLocal<Boolean> processingThreadLocal;
 
     private final ThreadLocal<LinkedList<Event>> eventQueueThreadLocal;
 
+    /* The contexts which entered a terminal state during the current dispatch of the thread. */
+    private final ThreadLocal<List<StateContext>> terminatedThreadLocal;
+
+    private final Set<StateContextLookup> contextLookups = new CopyOnWriteArraySet<>();
+
+    private final LongAdder deferredEvents = new LongAdder();
+
+    private final LongAdder replayedEvents = new LongAdder();
+
+    private final LongAdder droppedEvents = new LongAdder();
+
+    private volatile int maxDeferredEvents = DEFAULT_MAX_DEFERRED_EVENTS;
+
+    private volatile int compileThreshold = DEFAULT_COMPILE_THRESHOLD;
+
+    private volatile Executor timerExecutor = DefaultTimerExecutorHolder.INSTANCE;
+
+    /* Expired timers of this machine in the order they expired. At most one drain task runs on the timer executor. */
+    private final Queue<Runnable> expiredTimers = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean timerDrainScheduled = new AtomicBoolean();
+
     /**
      * Creates a new instance using the specified {@link State}s and start state.
      *
@@ -73,19 +145,12 @@ public final class StateMachine {
      * @param startStateId the id of the start {@link State}.
      */
     public StateMachine(State[] states, String startStateId) {
-        this.processingThreadLocal = new ThreadLocal<>();
-        this.processingThreadLocal.remove();
-        this.processingThreadLocal.set(Boolean.FALSE);
-
-        this.eventQueueThreadLocal = new ThreadLocal<>();
-        this.eventQueueThreadLocal.remove();
-        this.eventQueueThreadLocal.set(new LinkedList<>());
+        /* Events may be delivered by any thread (e.g. the timer executor), so every thread gets its own initial values. */
+        this.processingThreadLocal = ThreadLocal.withInitial(() -> Boolean.FALSE);
+        this.eventQueueThreadLocal = ThreadLocal.withInitial(LinkedList::new);
+        this.terminatedThreadLocal = ThreadLocal.withInitial(ArrayList::new);
 
-        this.states = new HashMap<>();
-        for (State state : states) {
-            this.states.put(state.getId(), state);
-        }
-        this.startState = getState(startStateId);
+        this.definition = new Definition(states, startStateId, Collections.emptyList());
     }
 
     /**
@@ -106,11 +171,195 @@ public final class StateMachine {
      * @throws NoSuchStateException if no matching {@link State} could be found.
      */
     public State getState(String id) throws NoSuchStateException {
-        State state = states.get(id);
-        if (state == null) {
-            throw new NoSuchStateException(id);
+        return definition.getState(id);
+    }
+
+    /**
+     * Replaces the {@link State}s of this {@link StateMachine}. The new definition is built and then published at
+     * once, {@link Event}s being processed meanwhile finish with the previous definition.
+     * <p>
+     * {@link StateContext}s are migrated lazily when they process their next {@link Event}: the id of their current
+     * {@link State}, and of the {@link State}s on their call stack, is passed through the specified mapping and replaced
+     * by the {@link State} with the resulting id. Contexts which skipped a definition are passed through all mappings
+     * since. No entry or exit actions are executed on migration, but the timeout of the new {@link State} is armed.
+     * </p>
+     *
+     * @param states       the new {@link State}s.
+     * @param startStateId the id of the new start {@link State}.
+     * @param mapping      maps the id of a {@link State} of the current definition to the id of a new {@link State}.
+     * @throws NoSuchStateException if there is no {@link State} with the specified start id. A mapping returning an
+     *                              unknown id raises this exception when the context is migrated.
+     */
+    public void redefine(Collection<State> states, String startStateId, Function<String, String> mapping) {
+        requireNonNull(states, "NULL is not permitted as value for 'states' parameter.");
+        requireNonNull(mapping, "NULL is not permitted as value for 'mapping' parameter.");
+
+        synchronized (definitionLock) {
+            List<Function<String, String>> mappings = new ArrayList<>(definition.mappings);
+            mappings.add(mapping);
+            definition = new Definition(states.toArray(State[]::new), startStateId, Collections.unmodifiableList(mappings));
         }
-        return state;
+    }
+
+    /**
+     * Returns the ids of all {@link Event}s handled or deferred by any {@link State} of this {@link StateMachine}. The
+     * ids are collected from the {@link de.am.common.sm.transition.AbstractTransition}s of the {@link State}s when this
+     * {@link StateMachine} is created.
+     *
+     * @return an unmodifiable {@link Set} of event ids.
+     * @see #isAcceptedEventId(Object)
+     */
+    public Set<Object> getAcceptedEventIds() {
+        return definition.eventIdIndex.getEventIds();
+    }
+
+    /**
+     * Returns whether any {@link State} of this {@link StateMachine} may handle or defer {@link Event}s with the specified
+     * id. An {@link Event} with an id for which this method returns <code>false</code> can never be handled, so callers
+     * may drop it before looking up a {@link StateContext} or creating the {@link Event}. If any {@link State} has a
+     * wildcard transition every id is accepted.
+     *
+     * @param eventId the id of the {@link Event}.
+     * @return <code>true</code> if the id is accepted.
+     */
+    public boolean isAcceptedEventId(Object eventId) {
+        return definition.eventIdIndex.isAccepted(eventId);
+    }
+
+    /**
+     * Returns whether the specified {@link State} or one of its parents may handle or defer {@link Event}s with the
+     * specified id.
+     *
+     * @param state   the {@link State}.
+     * @param eventId the id of the {@link Event}.
+     * @return <code>true</code> if the id is accepted.
+     * @see #isAcceptedEventId(Object)
+     */
+    public boolean isAcceptedEventId(State state, Object eventId) {
+        return definition.eventIdIndex.isAccepted(state, eventId);
+    }
+
+    /**
+     * Returns the {@link StateTable} of this {@link StateMachine}. A table is compiled when the machine is created if
+     * all {@link Transition}s can be selected by the {@link Event} id alone. Transitions without action are then
+     * dispatched through the table instead of evaluating the {@link Transition}s of the current {@link State} and its
+     * parents one by one.
+     *
+     * @return the {@link StateTable} or <code>null</code> if the machine could not be compiled.
+     */
+    public StateTable getStateTable() {
+        return definition.stateTable;
+    }
+
+    /**
+     * Enables the {@link StateIndex} of this {@link StateMachine}, which counts and lists the {@link StateContext}s by
+     * their current {@link State}. Maintaining the index costs an update per processed {@link Event}, so it is disabled
+     * by default. Calling this method again returns the same index.
+     *
+     * @return the {@link StateIndex}.
+     */
+    public StateIndex enableStateIndex() {
+        synchronized (definitionLock) {
+            if (stateIndex == null) {
+                stateIndex = new StateIndex();
+            }
+            return stateIndex;
+        }
+    }
+
+    /**
+     * Returns the {@link StateIndex} of this {@link StateMachine}.
+     *
+     * @return the {@link StateIndex} or <code>null</code> if it has not been {@link #enableStateIndex() enabled}.
+     */
+    public StateIndex getStateIndex() {
+        return stateIndex;
+    }
+
+    /**
+     * Sets the maximum number of deferred {@link Event}s per {@link StateContext}. An {@link Event} which would exceed
+     * the limit is dropped and reported as {@link DispatchResult#UNHANDLED unhandled}. The default is
+     * {@value #DEFAULT_MAX_DEFERRED_EVENTS}.
+     *
+     * @param maxDeferredEvents the maximum number of deferred {@link Event}s.
+     */
+    public void setMaxDeferredEvents(int maxDeferredEvents) {
+        if (maxDeferredEvents < 0) {
+            throw new IllegalArgumentException("maxDeferredEvents must not be negative: " + maxDeferredEvents);
+        }
+        this.maxDeferredEvents = maxDeferredEvents;
+    }
+
+    /**
+     * Sets the number of dispatches to a {@link State} after which its {@link Transition}s are indexed by event id.
+     * Until then the {@link Transition}s are tried one after the other, which keeps the creation of machines with many
+     * rarely used {@link State}s cheap. The default is {@value #DEFAULT_COMPILE_THRESHOLD}, 0 indexes a {@link State}
+     * on its first dispatch.
+     *
+     * @param compileThreshold the number of dispatches.
+     */
+    public void setCompileThreshold(int compileThreshold) {
+        if (compileThreshold < 0) {
+            throw new IllegalArgumentException("compileThreshold must not be negative: " + compileThreshold);
+        }
+        this.compileThreshold = compileThreshold;
+    }
+
+    /**
+     * Sets the {@link Executor} which processes the {@link Event}s of expired timers. The shared {@link TimingWheel}
+     * only hands expired timers over to it, so a handler waiting for the lock of this {@link StateMachine} does not delay
+     * the timers of other machines. The expired timers of this machine are processed by one task at a time, in the order
+     * they expired, and up to {@value #TIMER_BATCH_SIZE} of them under a single acquisition of the lock. Each machine
+     * therefore occupies at most one thread of the {@link Executor}. The default is a pool of daemon threads shared by
+     * all {@link StateMachine}s, bounded by the number of processors.
+     *
+     * @param timerExecutor the {@link Executor}.
+     */
+    public void setTimerExecutor(Executor timerExecutor) {
+        this.timerExecutor = requireNonNull(timerExecutor, "NULL is not permitted as value for 'timerExecutor' parameter.");
+    }
+
+    /**
+     * Registers a {@link StateContextLookup} whose {@link StateContext}s are processed by this {@link StateMachine}. A
+     * {@link StateContext} which enters a {@link State#isTerminal() terminal} {@link State} is
+     * {@link StateContextLookup#remove(StateContext) removed} from all registered lookups once the {@link Event}s queued
+     * in the same dispatch have been processed, no matter whether the {@link State} was entered through a proxy, a
+     * timeout, a scheduled {@link Event} or a broadcast. {@link StateMachineProxyBuilder} registers the lookup of each
+     * proxy it creates.
+     *
+     * @param lookup the {@link StateContextLookup}.
+     */
+    public void addStateContextLookup(StateContextLookup lookup) {
+        contextLookups.add(requireNonNull(lookup, "NULL is not permitted as value for 'lookup' parameter."));
+    }
+
+    /**
+     * Returns the number of {@link Event}s deferred so far.
+     *
+     * @return the number of deferred {@link Event}s.
+     */
+    public long getDeferredEventCount() {
+        return deferredEvents.sum();
+    }
+
+    /**
+     * Returns the number of deferred {@link Event}s processed again after a state change.
+     *
+     * @return the number of replayed {@link Event}s.
+     */
+    public long getReplayedEventCount() {
+        return replayedEvents.sum();
+    }
+
+    /**
+     * Returns the number of {@link Event}s dropped because the deferred queue of their {@link StateContext} was full or
+     * because they were still deferred when the {@link StateContext} entered a {@link State#isTerminal() terminal}
+     * {@link State}.
+     *
+     * @return the number of dropped {@link Event}s.
+     */
+    public long getDroppedEventCount() {
+        return droppedEvents.sum();
     }
 
     /**
@@ -125,11 +374,348 @@ public final class StateMachine {
      * </p>
      *
      * @param event the {@link Event} to be handled.
+     * @throws UnhandledEventException if no transition could handle the {@link Event}.
+     * @throws IllegalStateException   if this machine is processed by an {@link EventLoopGroup} and the calling thread
+     *                                 is not the loop thread of the {@link StateContext}.
+     * @see #tryHandle(Event)
      */
     @Synchronized
     public void handle(Event event) {
-        StateContext context = event.getContext();
+        checkDispatchThread(event);
+        if (dispatch(event, true) == DispatchResult.UNHANDLED) {
+            throw new UnhandledEventException(event);
+        }
+    }
+
+    /**
+     * Processes the specified {@link Event} like {@link #handle(Event)}, but reports an {@link Event} which could not be
+     * handled through the returned {@link DispatchResult} instead of an {@link UnhandledEventException}. Queued
+     * {@link Event}s processed in the same call which can not be handled are ignored as well.
+     *
+     * @param event the {@link Event} to be handled.
+     * @return the {@link DispatchResult} of the specified {@link Event}.
+     * @throws IllegalStateException if this machine is processed by an {@link EventLoopGroup} and the calling thread is
+     *                               not the loop thread of the {@link StateContext}.
+     */
+    @Synchronized
+    public DispatchResult tryHandle(Event event) {
+        checkDispatchThread(event);
+        return dispatch(event, false);
+    }
+
+    /**
+     * Delivers an {@link Event} with the specified id and arguments to all {@link StateContext}s of the specified
+     * {@link StateContextLookup}.
+     * <p>
+     * Only lookups which keep their contexts themselves, like {@link de.am.common.sm.context.LongStateContextLookup}
+     * and {@link de.am.common.sm.context.SingletonStateContextLookup}, can enumerate them. Lookups which take the context
+     * from the arguments of a call, like {@link de.am.common.sm.context.AbstractStateContextLookup}, throw an
+     * {@link UnsupportedOperationException}.
+     * </p>
+     *
+     * @param lookup    the {@link StateContextLookup}.
+     * @param eventId   the id of the {@link Event}.
+     * @param arguments the arguments of the {@link Event}.
+     * @return the aggregated {@link BroadcastResult}.
+     * @throws UnsupportedOperationException if the {@link StateContextLookup} can not enumerate its contexts.
+     * @see #broadcast(Iterable, Object, Object...)
+     */
+    public BroadcastResult broadcast(StateContextLookup lookup, Object eventId, Object... arguments) {
+        return broadcast(lookup, null, eventId, arguments);
+    }
 
+    /**
+     * Delivers an {@link Event} with the specified id and arguments to all {@link StateContext}s of the specified
+     * {@link StateContextLookup} and reports the outcome for each of them to the specified {@link BroadcastListener}.
+     *
+     * @param lookup    the {@link StateContextLookup}.
+     * @param listener  the {@link BroadcastListener} or <code>null</code>.
+     * @param eventId   the id of the {@link Event}.
+     * @param arguments the arguments of the {@link Event}.
+     * @return the aggregated {@link BroadcastResult}.
+     * @throws UnsupportedOperationException if the {@link StateContextLookup} can not enumerate its contexts.
+     * @see #broadcast(StateContextLookup, Object, Object...)
+     */
+    public BroadcastResult broadcast(StateContextLookup lookup, BroadcastListener listener, Object eventId,
+                                     Object... arguments) {
+        requireNonNull(lookup, "NULL is not permitted as value for 'lookup' parameter.");
+
+        return broadcast(lookup.contexts(), listener, eventId, arguments);
+    }
+
+    /**
+     * Delivers an {@link Event} with the specified id and arguments to each of the specified {@link StateContext}s like
+     * {@link #tryHandle(Event)}. Exceptions do not stop the broadcast, they are collected in the returned
+     * {@link BroadcastResult} together with the {@link DispatchResult}s of all other {@link StateContext}s.
+     * <p>
+     * Events are processed one {@link StateContext} after the other, since this {@link StateMachine} processes a single
+     * {@link Event} at a time. The lock is held for chunks of {@value #BROADCAST_CHUNK_SIZE} contexts instead of for
+     * every {@link Event}, so other threads can interleave their {@link Event}s between the chunks, and the
+     * {@link Event}s of each {@link StateContext} keep their order.
+     * </p>
+     * <p>
+     * The events are not fanned out to other threads, e.g. the common {@link java.util.concurrent.ForkJoinPool} or
+     * virtual threads, since without an {@link EventLoopGroup} the lock is all that keeps two threads from processing
+     * {@link Event}s of the same {@link StateContext}, and handlers may rely on it to serialize all {@link Event}s. Worker
+     * threads would have to bypass the lock, racing with {@link #handle(Event)}, or run while the broadcasting thread
+     * holds it, which deadlocks a handler calling {@link #handle(Event)} from a worker.
+     * </p>
+     * <p>
+     * If this machine is processed by an {@link EventLoopGroup}, the {@link Event}s are submitted to the loops of their
+     * {@link StateContext}s instead and processed in parallel. The method returns when all of them have been processed.
+     * </p>
+     *
+     * @param contexts  the {@link StateContext}s.
+     * @param eventId   the id of the {@link Event}.
+     * @param arguments the arguments of the {@link Event}.
+     * @return the aggregated {@link BroadcastResult}.
+     * @throws IllegalStateException if called by a loop thread of the {@link EventLoopGroup} of this machine.
+     */
+    public BroadcastResult broadcast(Iterable<? extends StateContext> contexts, Object eventId, Object... arguments) {
+        return broadcast(contexts, null, eventId, arguments);
+    }
+
+    /**
+     * Delivers an {@link Event} with the specified id and arguments to each of the specified {@link StateContext}s like
+     * {@link #broadcast(Iterable, Object, Object...)} and reports the outcome for each of them to the specified
+     * {@link BroadcastListener} as soon as its {@link Event} has been processed.
+     *
+     * @param contexts  the {@link StateContext}s.
+     * @param listener  the {@link BroadcastListener} or <code>null</code>.
+     * @param eventId   the id of the {@link Event}.
+     * @param arguments the arguments of the {@link Event}.
+     * @return the aggregated {@link BroadcastResult}.
+     * @throws IllegalStateException if called by a loop thread of the {@link EventLoopGroup} of this machine.
+     */
+    public BroadcastResult broadcast(Iterable<? extends StateContext> contexts, BroadcastListener listener,
+                                     Object eventId, Object... arguments) {
+        requireNonNull(contexts, "NULL is not permitted as value for 'contexts' parameter.");
+        requireNonNull(eventId, "NULL is not permitted as value for 'eventId' parameter.");
+
+        EventLoopGroup group = eventLoopGroup;
+        if (group != null) {
+            return broadcast(group, contexts, listener, eventId, arguments);
+        }
+
+        BroadcastResult result = new BroadcastResult();
+        List<StateContext> chunk = new ArrayList<>(BROADCAST_CHUNK_SIZE);
+        for (StateContext context : contexts) {
+            chunk.add(context);
+            if (chunk.size() == BROADCAST_CHUNK_SIZE) {
+                broadcast(chunk, listener, eventId, arguments, result);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            broadcast(chunk, listener, eventId, arguments, result);
+        }
+        return result;
+    }
+
+    /**
+     * Schedules the specified {@link Event} to be processed after the specified delay. When the delay has expired the
+     * event is handed to the {@link #setTimerExecutor(Executor) timer executor}, which processes it like
+     * {@link #handle(Event)} together with the other expired timers of this {@link StateMachine}, in the order they
+     * expired. It is serialized with all other events of this {@link StateMachine}. Exceptions raised
+     * while processing the event are logged. If this machine is processed by an {@link EventLoopGroup}, the event is
+     * submitted to the group instead.
+     *
+     * @param event the {@link Event} to be handled.
+     * @param delay the delay.
+     * @return the {@link TimerHandle} which can be used to cancel the delivery.
+     */
+    public TimerHandle schedule(Event event, Duration delay) {
+        requireNonNull(event, "NULL is not permitted as value for 'event' parameter.");
+        requireNonNull(delay, "NULL is not permitted as value for 'delay' parameter.");
+
+        return TimingWheel.getDefault().schedule(h -> deliverScheduled(event, null), delay.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Schedules the specified {@link Event} to be processed periodically, first after the initial delay and then with
+     * the specified period until the returned {@link TimerHandle} is cancelled. A period which expires while the
+     * {@link Event} of the previous one has not been processed yet is skipped, so a slow handler does not pile up
+     * {@link Event}s.
+     *
+     * @param event        the {@link Event} to be handled.
+     * @param initialDelay the delay of the first delivery.
+     * @param period       the period between successive deliveries.
+     * @return the {@link TimerHandle} which can be used to cancel the delivery.
+     * @see #schedule(Event, Duration)
+     */
+    public TimerHandle scheduleAtFixedRate(Event event, Duration initialDelay, Duration period) {
+        requireNonNull(event, "NULL is not permitted as value for 'event' parameter.");
+        requireNonNull(initialDelay, "NULL is not permitted as value for 'initialDelay' parameter.");
+        requireNonNull(period, "NULL is not permitted as value for 'period' parameter.");
+
+        AtomicBoolean pending = new AtomicBoolean();
+        TimerTask task = h -> {
+            if (pending.compareAndSet(false, true)) {
+                deliverScheduled(event, pending);
+            } else if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Skipping a period of event {}, the previous one has not been processed yet.", event);
+            }
+        };
+        return TimingWheel.getDefault()
+            .scheduleAtFixedRate(task, initialDelay.toNanos(), period.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /* Runs the specified task under the lock of this machine, so it is not interleaved with the processing of events. */
+    @Synchronized
+    void runLocked(Runnable task) {
+        task.run();
+    }
+
+    /* Called by the loop threads of an EventLoopGroup. Each context is dispatched by a single loop thread only, so
+     * the lock is not needed. The thread locals are per loop thread and handle re-entrant events as usual. With
+     * failOnUnhandled, queued events which can not be handled raise an UnhandledEventException like handle(Event). */
+    DispatchResult dispatchOnLoop(Event event, boolean failOnUnhandled) {
+        return dispatch(event, failOnUnhandled);
+    }
+
+    EventLoopGroup getEventLoopGroup() {
+        return eventLoopGroup;
+    }
+
+    void attach(EventLoopGroup group) {
+        synchronized (definitionLock) {
+            if (eventLoopGroup != null) {
+                throw new IllegalStateException("The state machine is already processed by an event loop group.");
+            }
+            eventLoopGroup = group;
+        }
+    }
+
+    void detach(EventLoopGroup group) {
+        synchronized (definitionLock) {
+            if (eventLoopGroup == group) {
+                eventLoopGroup = null;
+            }
+        }
+    }
+
+    // #################################################################################################################
+    @Synchronized
+    private void broadcast(List<StateContext> chunk, BroadcastListener listener, Object eventId, Object[] arguments,
+                           BroadcastResult result) {
+        for (StateContext context : chunk) {
+            broadcast(context, listener, eventId, arguments, result);
+        }
+    }
+
+    private BroadcastResult broadcast(EventLoopGroup group, Iterable<? extends StateContext> contexts,
+                                      BroadcastListener listener, Object eventId, Object[] arguments) {
+        if (group.isLoopThread()) {
+            /* The loop would wait for itself. */
+            throw new IllegalStateException("A broadcast can not be started by an event loop thread.");
+        }
+
+        BroadcastResult result = new BroadcastResult();
+        /* Starts with one for this thread, so the latch can not open before all contexts have been submitted. */
+        AtomicLong pending = new AtomicLong(1);
+        CountDownLatch done = new CountDownLatch(1);
+        for (StateContext context : contexts) {
+            pending.incrementAndGet();
+            group.execute(context, () -> {
+                try {
+                    broadcast(context, listener, eventId, arguments, result);
+                } finally {
+                    if (pending.decrementAndGet() == 0) {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        if (pending.decrementAndGet() == 0) {
+            done.countDown();
+        }
+
+        try {
+            done.await();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the broadcast of event " + eventId + ".", ie);
+        }
+        return result;
+    }
+
+    private void broadcast(StateContext context, BroadcastListener listener, Object eventId, Object[] arguments,
+                           BroadcastResult result) {
+        DispatchResult dispatchResult = null;
+        RuntimeException exception = null;
+        try {
+            dispatchResult = dispatch(new Event(eventId, context, arguments), false);
+            result.add(dispatchResult);
+        } catch (RuntimeException e) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Broadcast of event {} failed in state {}.", eventId, context.getCurrentState(), e);
+            }
+            exception = e;
+            result.addFailure(context, e);
+        }
+
+        if (listener != null) {
+            try {
+                listener.onProcessed(context, dispatchResult, exception);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Broadcast listener {} raised an exception.", listener, e);
+            }
+        }
+    }
+
+    private void checkDispatchThread(Event event) {
+        EventLoopGroup group = eventLoopGroup;
+        if (group != null && !group.isLoopThread(event.getContext())) {
+            throw new IllegalStateException("The events of this state machine are processed by an event loop group, submit them to the group.");
+        }
+    }
+
+    /* Runs on the timer thread, which must not wait for the lock. The pending flag of a periodic event is cleared
+     * once the event has been processed. */
+    private void deliverScheduled(Event event, AtomicBoolean pending) {
+        EventLoopGroup group = eventLoopGroup;
+        if (group != null) {
+            submitScheduled(group, event, pending);
+            return;
+        }
+        deliverExpired(() -> {
+            /* A group may have been opened since the timer expired. */
+            EventLoopGroup g = eventLoopGroup;
+            if (g != null) {
+                submitScheduled(g, event, pending);
+                return;
+            }
+            try {
+                if (dispatch(event, true) == DispatchResult.UNHANDLED) {
+                    throw new UnhandledEventException(event);
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Scheduled event {} raised an exception.", event, e);
+            } finally {
+                if (pending != null) {
+                    pending.set(false);
+                }
+            }
+        });
+    }
+
+    private void submitScheduled(EventLoopGroup group, Event event, AtomicBoolean pending) {
+        if (pending == null) {
+            group.submit(event);
+            return;
+        }
+        group.execute(event.getContext(), () -> {
+            try {
+                if (dispatchOnLoop(event, false) == DispatchResult.UNHANDLED && LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Scheduled event {} was not handled.", event);
+                }
+            } finally {
+                pending.set(false);
+            }
+        });
+    }
+
+    private DispatchResult dispatch(Event event, boolean failOnUnhandled) {
         LinkedList<Event> eventQueue = eventQueueThreadLocal.get();
         eventQueue.addLast(event);
 
@@ -139,32 +725,88 @@ public final class StateMachine {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("State machine called recursively. Queuing event {} for later processing.", event);
             }
-        } else {
-            processingThreadLocal.set(true);
-            try {
-                if (context.getCurrentState() == null) {
-                    context.setCurrentState(startState);
+            return DispatchResult.QUEUED;
+        }
+
+        processingThreadLocal.set(true);
+        try {
+            return processEvents(definition, eventQueue, failOnUnhandled);
+        } finally {
+            processingThreadLocal.set(false);
+            removeTerminated();
+        }
+    }
+
+    /* Removes the contexts which entered a terminal state from the registered lookups. Runs after all queued events
+     * have been processed, so none of them works with a context which has been reset already. */
+    private void removeTerminated() {
+        List<StateContext> terminated = terminatedThreadLocal.get();
+        if (terminated.isEmpty()) {
+            return;
+        }
+        try {
+            for (StateContext context : terminated) {
+                State state = context.getCurrentState();
+                if (state != null && state.isTerminal()) {
+                    for (StateContextLookup lookup : contextLookups) {
+                        lookup.remove(context);
+                    }
                 }
-                processEvents(eventQueue);
-            } finally {
-                processingThreadLocal.set(false);
             }
+        } finally {
+            terminated.clear();
         }
     }
 
-    // #################################################################################################################
-    private void processEvents(LinkedList<Event> eventQueue) {
+    private DispatchResult processEvents(Definition def, LinkedList<Event> eventQueue, boolean failOnUnhandled) {
+        DispatchResult first = null;
         while (!eventQueue.isEmpty()) {
             Event event = eventQueue.removeFirst();
             StateContext context = event.getContext();
-            handle(context.getCurrentState(), event);
+            State state = context.getCurrentState();
+            if (state == null) {
+                /* Also applies to queued events of contexts which have not processed an event yet. */
+                state = start(def, context);
+            } else if (def.getGeneration() > 0) {
+                state = migrate(def, context, state);
+            }
+            if (stateIndex != null && !state.isTerminal()) {
+                /* Contexts which have not changed their state since the index was enabled are indexed once. */
+                ContextData data = (ContextData) context.getMachineData();
+                if (data == null || !data.indexed) {
+                    index(context, state);
+                }
+            }
+            DispatchResult result = handle(def, state, event);
+
+            if (result == DispatchResult.UNHANDLED) {
+                if (failOnUnhandled) {
+                    /* The first event is reported by the caller, queued events can only be reported here. */
+                    if (first == null) {
+                        return result;
+                    }
+                    throw new UnhandledEventException(event);
+                }
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Event {} was not handled.", event);
+                }
+            }
+            if (first == null) {
+                first = result;
+            }
         }
+        return first;
     }
 
-    private void handle(State state, Event event) {
+    private DispatchResult handle(Definition def, State state, Event event) {
         StateContext context = event.getContext();
 
-        for (Transition t : state.getTransitions()) {
+        /* Machines without a table, e.g. those built from annotations, do not pay for the table lookups. */
+        if (def.stateTable != null && handleCompiled(def.stateTable, state, event)) {
+            return DispatchResult.HANDLED;
+        }
+
+        for (Transition t : state.getTransitionArray(event.getId(), compileThreshold)) {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Trying transition {}", t);
             }
@@ -176,33 +818,33 @@ public final class StateMachine {
                     }
                     setCurrentState(context, t.getNextState());
 
-                    return;
+                    return DispatchResult.HANDLED;
                 }
             } catch (BreakAndContinueException bace) {
                 if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug("BreakAndContinueException thrown in transition {}. Continuing with next transition.", t);
                 }
             } catch (BreakAndGotoException bage) {
-                State newState = getState(bage.getStateId());
+                State newState = def.getState(bage.getStateId());
 
                 if (bage.isNow()) {
                     if (LOGGER.isDebugEnabled()) {
                         LOGGER.debug("BreakAndGotoException thrown in transition {}. Moving to state {} now.", t, newState.getId());
                     }
                     setCurrentState(context, newState);
-                    handle(newState, event);
+                    return handle(def, newState, event);
                 } else {
                     if (LOGGER.isDebugEnabled()) {
                         LOGGER.debug("BreakAndGotoException thrown in transition {}. Moving to state {} next.", t, newState.getId());
                     }
                     setCurrentState(context, newState);
                 }
-                return;
+                return DispatchResult.HANDLED;
             } catch (BreakAndCallException bace) {
-                State newState = getState(bace.getStateId());
+                State newState = def.getState(bace.getStateId());
 
                 Stack<State> callStack = getCallStack(context);
-                State returnTo = bace.getReturnToStateId() != null ? getState(bace.getReturnToStateId()) : context.getCurrentState();
+                State returnTo = bace.getReturnToStateId() != null ? def.getState(bace.getReturnToStateId()) : context.getCurrentState();
                 callStack.push(returnTo);
 
                 if (bace.isNow()) {
@@ -210,14 +852,14 @@ public final class StateMachine {
                         LOGGER.debug("BreakAndCallException thrown in transition {}. Moving to state {} noe.", t, newState.getId());
                     }
                     setCurrentState(context, newState);
-                    handle(newState, event);
+                    return handle(def, newState, event);
                 } else {
                     if (LOGGER.isDebugEnabled()) {
                         LOGGER.debug("BreakAndCallException thrown in transition {}. Moving to state {} next.", t, newState.getId());
                     }
                     setCurrentState(context, newState);
                 }
-                return;
+                return DispatchResult.HANDLED;
             } catch (BreakAndReturnException bare) {
                 Stack<State> callStack = getCallStack(context);
                 State newState = callStack.pop();
@@ -227,79 +869,412 @@ public final class StateMachine {
                         LOGGER.debug("BreakAndReturnException thrown in transition {}. Moving to state {} now.", t, newState.getId());
                     }
                     setCurrentState(context, newState);
-                    handle(newState, event);
+                    return handle(def, newState, event);
                 } else {
                     if (LOGGER.isDebugEnabled()) {
                         LOGGER.debug("BreakAndReturnException thrown in transition {}. Moving to state {} next", t, newState.getId());
                     }
                     setCurrentState(context, newState);
                 }
-                return;
+                return DispatchResult.HANDLED;
             }
         }
 
-        /* No transition could handle the event. Try with the parent state if there is one. */
-        if (state.getParent() != null) {
-            handle(state.getParent(), event);
-        } else {
-            throw new UnhandledEventException(event);
+        /* No transition could handle the event. Park it if the state defers it, otherwise try with the parent state. */
+        if (state.isDeferred(event.getId())) {
+            return defer(context, event);
+        } else if (state.getParent() != null) {
+            return handle(def, state.getParent(), event);
+        }
+        return DispatchResult.UNHANDLED;
+    }
+
+    private boolean handleCompiled(StateTable stateTable, State state, Event event) {
+        /* Only transitions without action are taken from the table. Actions may use StateControl, which the
+         * interpreted path below takes care of. Unhandled events fall through for deferral and error handling. */
+        int s = stateTable.stateOrdinal(state);
+        int e = stateTable.eventOrdinal(event.getId());
+        if (s == StateTable.UNHANDLED || e == StateTable.UNHANDLED || stateTable.hasAction(s, e)) {
+            return false;
+        }
+        int next = stateTable.nextOrLoopback(s, e);
+        if (next == StateTable.UNHANDLED) {
+            return false;
+        }
+        if (!StateTable.isLoopback(next)) {
+            setCurrentState(event.getContext(), stateTable.getState(next));
+        }
+        return true;
+    }
+
+    private DispatchResult defer(StateContext context, Event event) {
+        /* The queue is only created for contexts which actually defer events. */
+        ContextData data = data(context);
+        if (data.deferredEvents == null) {
+            data.deferredEvents = new LinkedList<>();
+        }
+        if (data.deferredEvents.size() >= maxDeferredEvents) {
+            droppedEvents.increment();
+            return DispatchResult.UNHANDLED;
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Deferring event {} in state {}.", event, context.getCurrentState().getId());
         }
+        data.deferredEvents.addLast(event);
+        deferredEvents.increment();
+        return DispatchResult.DEFERRED;
+    }
+
+    private void replayDeferred(StateContext context) {
+        ContextData data = (ContextData) context.getMachineData();
+        if (data == null || data.deferredEvents == null || data.deferredEvents.isEmpty()) {
+            return;
+        }
+
+        /* Deferred events are processed before any event queued later, keeping their original order. */
+        LinkedList<Event> eventQueue = eventQueueThreadLocal.get();
+        while (!data.deferredEvents.isEmpty()) {
+            eventQueue.addFirst(data.deferredEvents.removeLast());
+            replayedEvents.increment();
+        }
+    }
+
+    private void discardDeferred(StateContext context) {
+        ContextData data = (ContextData) context.getMachineData();
+        if (data != null && data.deferredEvents != null && !data.deferredEvents.isEmpty()) {
+            /* A terminal state handles no more events, so deferred events would only fail on replay. */
+            droppedEvents.add(data.deferredEvents.size());
+            data.deferredEvents.clear();
+        }
+    }
+
+    private State start(Definition def, StateContext context) {
+        context.setCurrentState(def.startState);
+        if (def.getGeneration() > 0) {
+            data(context).generation = def.getGeneration();
+        }
+        armTimeout(context, def.startState);
+        return def.startState;
+    }
+
+    private State migrate(Definition def, StateContext context, State state) {
+        ContextData data = (ContextData) context.getMachineData();
+        int from = data != null ? data.generation : 0;
+        if (from == def.getGeneration()) {
+            return state;
+        }
+
+        State migrated = def.migrate(state, from);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Migrating state {} to {}.", state.getId(), migrated.getId());
+        }
+        if (data != null && data.callStack != null) {
+            data.callStack.replaceAll(s -> def.migrate(s, from));
+        }
+        context.setCurrentState(migrated);
+        data(context).generation = def.getGeneration();
+        armTimeout(context, migrated);
+        index(context, migrated);
+        return migrated;
     }
 
     private Stack<State> getCallStack(StateContext context) {
-        Stack<State> callStack = (Stack<State>) context.getAttribute(CALL_STACK);
-        if (callStack == null) {
-            callStack = new Stack<>();
-            context.setAttribute(CALL_STACK, callStack);
+        ContextData data = data(context);
+        if (data.callStack == null) {
+            data.callStack = new Stack<>();
         }
-        return callStack;
+        return data.callStack;
+    }
+
+    /* Returns the bookkeeping of the context, which is only created once there is something to keep. */
+    private static ContextData data(StateContext context) {
+        ContextData data = (ContextData) context.getMachineData();
+        if (data == null) {
+            data = new ContextData();
+            context.setMachineData(data);
+        }
+        return data;
     }
 
     private void setCurrentState(StateContext context, State newState) {
         if (newState != null) {
-            if (LOGGER.isDebugEnabled() && newState != context.getCurrentState()) {
-                LOGGER.debug("Leaving state {}", context.getCurrentState().getId());
+            State oldState = context.getCurrentState();
+            if (LOGGER.isDebugEnabled() && newState != oldState) {
+                LOGGER.debug("Leaving state {}", oldState.getId());
                 LOGGER.debug("Entering state {}", newState.getId());
             }
-            executeOnExits(context, context.getCurrentState());
-            executeOnEntries(context, newState);
+            executeHooks(context, oldState, newState);
             context.setCurrentState(newState);
+            armTimeout(context, newState);
+            if (newState.isTerminal()) {
+                discardDeferred(context);
+                ContextData data = (ContextData) context.getMachineData();
+                if (data != null) {
+                    data.callStack = null;
+                }
+                if (!contextLookups.isEmpty()) {
+                    terminatedThreadLocal.get().add(context);
+                }
+            } else {
+                replayDeferred(context);
+            }
+
+            if (stateIndex != null) {
+                ContextData data = (ContextData) context.getMachineData();
+                if (newState != oldState || data == null || !data.indexed) {
+                    index(context, newState);
+                }
+            }
         }
     }
 
-    void executeOnExits(StateContext context, State state) {
-        List<SelfTransition> onExits = state.getOnExitSelfTransitions();
-        boolean isExecuted = false;
+    /* Keeps the StateIndex up to date with the state of the context, if it has been enabled. */
+    private void index(StateContext context, State state) {
+        StateIndex index = stateIndex;
+        if (index == null) {
+            return;
+        }
+        if (state.isTerminal()) {
+            index.remove(context);
+        } else {
+            index.update(context, state);
+            data(context).indexed = true;
+        }
+    }
 
-        if (onExits != null) {
-            for (SelfTransition selfTransition : onExits) {
-                selfTransition.execute(context, state);
-                if (LOGGER.isDebugEnabled()) {
-                    isExecuted = true;
-                    LOGGER.debug("Executing onEntry action for {}", state.getId());
+    private void armTimeout(StateContext context, State state) {
+        ContextData data = (ContextData) context.getMachineData();
+        if (data != null && data.timeout != null) {
+            data.timeout.cancel();
+            data.timeout = null;
+        }
+
+        /* A terminal state handles no more events, so its context must not be kept alive by a timer. */
+        Duration timeout = state.isTerminal() ? null : state.getTimeout();
+        if (timeout == null) {
+            return;
+        }
+
+        TimerTask task = h -> deliverTimeout(context, state, h);
+        data(context).timeout = TimingWheel.getDefault().schedule(task, timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /* Runs on the timer thread. The group is read on expiry, so timeouts armed before it was opened reach the loop. */
+    private void deliverTimeout(StateContext context, State state, TimerHandle handle) {
+        EventLoopGroup group = eventLoopGroup;
+        if (group != null) {
+            group.execute(context, () -> fireTimeout(context, state, handle));
+        } else {
+            deliverExpired(() -> {
+                /* A group may have been opened since the timer expired. */
+                EventLoopGroup g = eventLoopGroup;
+                if (g != null) {
+                    g.execute(context, () -> fireTimeout(context, state, handle));
+                } else {
+                    fireTimeout(context, state, handle);
                 }
+            });
+        }
+    }
+
+    /* Runs on the timer thread, which must not wait for the lock. */
+    private void deliverExpired(Runnable timer) {
+        expiredTimers.add(timer);
+        scheduleTimerDrain();
+    }
+
+    private void scheduleTimerDrain() {
+        if (timerDrainScheduled.compareAndSet(false, true)) {
+            try {
+                timerExecutor.execute(this::drainExpiredTimers);
+            } catch (RejectedExecutionException ree) {
+                timerDrainScheduled.set(false);
+                LOGGER.warn("The timer executor rejected the expired timers of the state machine.", ree);
             }
         }
-        if (LOGGER.isDebugEnabled() && !isExecuted) {
-            LOGGER.debug("No onEntry action for {}", state.getId());
+    }
+
+    private void drainExpiredTimers() {
+        processExpiredTimers();
+        timerDrainScheduled.set(false);
+        /* Timers added after the last poll, or left over from a full batch, need another drain. */
+        if (!expiredTimers.isEmpty()) {
+            scheduleTimerDrain();
+        }
+    }
+
+    @Synchronized
+    private void processExpiredTimers() {
+        for (int i = 0; i < TIMER_BATCH_SIZE; i++) {
+            Runnable timer = expiredTimers.poll();
+            if (timer == null) {
+                return;
+            }
+            try {
+                timer.run();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Expired timer {} raised an exception.", timer, e);
+            }
+        }
+    }
+
+    private void fireTimeout(StateContext context, State state, TimerHandle handle) {
+        /* The state may have been left while the timeout was waiting for the lock or the event loop. */
+        ContextData data = (ContextData) context.getMachineData();
+        if (context.getCurrentState() != state || data == null || data.timeout != handle) {
+            return;
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Timeout of state {} expired.", state.getId());
+        }
+        DispatchResult result = dispatch(new Event(state.getTimeoutEventId(), context), false);
+        if (result == DispatchResult.UNHANDLED && LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Timeout event {} of state {} was not handled.", state.getTimeoutEventId(), state.getId());
+        }
+    }
+
+    private void executeHooks(StateContext context, State from, State to) {
+        /* Exit up to, but excluding, the least common ancestor and enter down from there. A transition to the current
+         * state itself exits and re-enters it. */
+        State[] fromPath = from.getPath();
+        State[] toPath = to.getPath();
+
+        int common = 0;
+        int max = Math.min(fromPath.length, toPath.length);
+        while (common < max && fromPath[common] == toPath[common]) {
+            common++;
+        }
+        if (from == to) {
+            common--;
+        }
+
+        for (int i = fromPath.length - 1; i >= common; i--) {
+            executeOnExits(context, fromPath[i]);
+        }
+        for (int i = common; i < toPath.length; i++) {
+            executeOnEntries(context, toPath[i]);
+        }
+    }
+
+    void executeOnExits(StateContext context, State state) {
+        SelfTransition[] onExits = state.getOnExitArray();
+        for (SelfTransition selfTransition : onExits) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Executing onExit action for {}", state.getId());
+            }
+            selfTransition.execute(context, state);
+        }
+        if (LOGGER.isDebugEnabled() && onExits.length == 0) {
+            LOGGER.debug("No onExit action for {}", state.getId());
         }
     }
 
     void executeOnEntries(StateContext context, State state) {
-        boolean isExecuted = false;
+        SelfTransition[] onEntries = state.getOnEntryArray();
+        for (SelfTransition selfTransition : onEntries) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Executing onEntry action for {}", state.getId());
+            }
+            selfTransition.execute(context, state);
+        }
+        if (LOGGER.isDebugEnabled() && onEntries.length == 0) {
+            LOGGER.debug("No onEntry action for {}", state.getId());
+        }
+    }
 
-        List<SelfTransition> onEntries = state.getOnEntrySelfTransitions();
-        if (onEntries != null) {
-            for (SelfTransition selfTransition : onEntries) {
-                selfTransition.execute(context, state);
-                if (LOGGER.isDebugEnabled()) {
-                    isExecuted = true;
-                    LOGGER.debug("Executing onExit action for {}", state.getId());
+    /**
+     * Holds the default timer {@link Executor}, created on first use. It has at most one thread per processor, the
+     * threads are daemons and terminate when idle.
+     */
+    private static final class DefaultTimerExecutorHolder {
+
+        private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+        private static final Executor INSTANCE = createExecutor();
+
+        private static Executor createExecutor() {
+            int threads = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), DefaultTimerExecutorHolder::newThread);
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+
+        private static Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "common-sm-timer-dispatch-" + THREAD_COUNT.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * The bookkeeping of this class for a {@link StateContext}, stored as its
+     * {@link StateContext#getMachineData() machine data}. Kept in a holder since the deferred {@link Event}s reference
+     * the {@link StateContext} itself.
+     */
+    private static final class ContextData {
+
+        /* The timer of the current state. */
+        private TimerHandle timeout;
+        /* The generation of the definition the states of the context belong to. */
+        private int generation;
+        private Stack<State> callStack;
+        private LinkedList<Event> deferredEvents;
+        /* Whether the context has been added to the StateIndex. */
+        private boolean indexed;
+
+        @Override
+        public String toString() {
+            return "generation: " + generation + ", deferred events: " + (deferredEvents != null ? deferredEvents.size() : 0);
+        }
+    }
+
+    /**
+     * The {@link State}s of a {@link StateMachine} and everything derived from them. The mappings lead from the states of
+     * each previous definition to the next one, so their number is the generation of the definition.
+     */
+    private static final class Definition {
+
+        private final State startState;
+        private final Map<String, State> states = new HashMap<>();
+        private final EventIdIndex eventIdIndex;
+        private final StateTable stateTable;
+        private final List<Function<String, String>> mappings;
+
+        Definition(State[] states, String startStateId, List<Function<String, String>> mappings) {
+            for (State state : states) {
+                /* Parents are frozen as well, even if they have not been passed in. */
+                for (State s = state; s != null; s = s.getParent()) {
+                    s.freeze();
                 }
+                this.states.put(state.getId(), state);
             }
+            this.startState = getState(startStateId);
+            this.eventIdIndex = new EventIdIndex(this.states.values());
+            this.stateTable = StateTable.compile(this.states.values());
+            this.mappings = mappings;
         }
-        if (LOGGER.isDebugEnabled() && !isExecuted) {
-            LOGGER.debug("No onEntry action for {}", state.getId());
+
+        State getState(String id) {
+            State state = states.get(id);
+            if (state == null) {
+                throw new NoSuchStateException(id);
+            }
+            return state;
+        }
+
+        int getGeneration() {
+            return mappings.size();
+        }
+
+        State migrate(State state, int generation) {
+            String id = state.getId();
+            for (int g = generation; g < mappings.size(); g++) {
+                id = mappings.get(g).apply(id);
+            }
+            return getState(id);
         }
     }
-}
\ No newline at end of file
+}
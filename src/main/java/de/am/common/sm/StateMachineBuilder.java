@@ -0,0 +1,280 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm;
+
+import de.am.common.sm.context.StateContext;
+import de.am.common.sm.exception.NoSuchStateException;
+import de.am.common.sm.exception.StateMachineCreationException;
+import de.am.common.sm.transition.LambdaSelfTransition;
+import de.am.common.sm.transition.LambdaTransition;
+import de.am.common.sm.transition.NoopTransition;
+import de.am.common.sm.transition.Transition;
+import de.am.common.sm.transition.TypedTransition;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Fluent builder which creates a {@link StateMachine} from {@link State} ids, event ids and lambdas, as an alternative
+ * to the annotation based {@link StateMachineFactory}.
+ * <p>
+ * States must be declared before they are referenced, so a parent state has to be declared before its children. The
+ * transitions are {@link LambdaTransition}s which call the specified lambdas directly, without reflection.
+ * </p>
+ * <pre>
+ * StateMachine sm = new StateMachineBuilder()
+ *     .state("idle")
+ *     .state("running")
+ *     .transition("idle", "start", "running", (context, args) -&gt; start(args))
+ *     .transition("running", "stop", "idle", (context, args) -&gt; stop())
+ *     .onEntry("running", (context, state) -&gt; log(state))
+ *     .build("idle");
+ * </pre>
+ *
+ * @author Martin Absmeier
+ */
+public class StateMachineBuilder {
+
+    private final Map<String, State> states = new LinkedHashMap<>();
+
+    /**
+     * Creates a new builder without any {@link State}s.
+     */
+    public StateMachineBuilder() {
+    }
+
+    /**
+     * Declares a {@link State} without parent.
+     *
+     * @param id the id of the {@link State}.
+     * @return this {@link StateMachineBuilder} for method chaining.
+     */
+    public StateMachineBuilder state(String id) {
+        return addState(new State(id));
+    }
+
+    /**
+     * Declares a {@link State} with the specified parent.
+     *
+     * @param id       the id of the {@link State}.
+     * @param parentId the id of the already declared parent {@link State}.
+     * @return this {@link StateMachineBuilder} for method chaining.
+     * @throws NoSuchStateException if the parent has not been declared.
+     */
+    public StateMachineBuilder state(String id, String parentId) {
+        return addState(new State(id, getState(parentId)));
+    }
+
+    /**
+     * Adds a {@link Transition} which changes to the next {@link State} without executing any action.
+     *
+     * @param in      the id of the {@link State} the {@link Transition} starts in.
+     * @param eventId the id of the {@link de.am.common.sm.event.Event} handled.
+     * @param next    the id of the next {@link State}.
+     * @return this {@link StateMachineBuilder} for method chaining.
+     */
+    public StateMachineBuilder transition(String in, Object eventId, String next) {
+        getState(in).addTransition(new NoopTransition(eventId, getState(next)));
+        return this;
+    }
+
+    /**
+     * Adds a {@link Transition} which executes the action and changes to the next {@link State}.
+     *
+     * @param in      the id of the {@link State} the {@link Transition} starts in.
+     * @param eventId the id of the {@link de.am.common.sm.event.Event} handled.
+     * @param next    the id of the next {@link State}.
+     * @param action  the action to execute.
+     * @return this {@link StateMachineBuilder} for method chaining.
+     */
+    public StateMachineBuilder transition(String in, Object eventId, String next, BiConsumer<StateContext, Object[]> action) {
+        return transition(in, eventId, next, null, action, 0);
+    }
+
+    /**
+     * Adds a guarded {@link Transition} with the specified weight. If the guard rejects an
+     * {@link de.am.common.sm.event.Event}, the next {@link Transition} with a higher weight is tried.
+     *
+     * @param in      the id of the {@link State} the {@link Transition} starts in.
+     * @param eventId the id of the {@link de.am.common.sm.event.Event} handled.
+     * @param next    the id of the next {@link State} or <code>null</code> to stay in the current {@link State}.
+     * @param guard   the guard or <code>null</code> to accept any {@link de.am.common.sm.event.Event}.
+     * @param action  the action to execute.
+     * @param weight  the transition priority where lower numbers are matched first.
+     * @return this {@link StateMachineBuilder} for method chaining.
+     * @see State#addTransition(Transition, int)
+     */
+    public StateMachineBuilder transition(String in, Object eventId, String next,
+                                          BiPredicate<StateContext, Object[]> guard,
+                                          BiConsumer<StateContext, Object[]> action, int weight) {
+        State nextState = next != null ? getState(next) : null;
+        getState(in).addTransition(new LambdaTransition(eventId, nextState, guard, action), weight);
+        return this;
+    }
+
+    /**
+     * Adds a {@link TypedTransition} which handles messages of the specified type or any of its subtypes, executes the
+     * action and changes to the next {@link State}.
+     *
+     * @param <E>    the type of the message.
+     * @param in     the id of the {@link State} the {@link Transition} starts in.
+     * @param type   the type of the message.
+     * @param next   the id of the next {@link State} or <code>null</code> to stay in the current {@link State}.
+     * @param action the action to execute.
+     * @return this {@link StateMachineBuilder} for method chaining.
+     * @see de.am.common.sm.event.TypedEventFactory
+     */
+    public <E> StateMachineBuilder typedTransition(String in, Class<E> type, String next, BiConsumer<StateContext, ? super E> action) {
+        return typedTransition(in, type, next, null, action, 0);
+    }
+
+    /**
+     * Adds a guarded {@link TypedTransition} with the specified weight.
+     *
+     * @param <E>    the type of the message.
+     * @param in     the id of the {@link State} the {@link Transition} starts in.
+     * @param type   the type of the message.
+     * @param next   the id of the next {@link State} or <code>null</code> to stay in the current {@link State}.
+     * @param guard  the guard or <code>null</code> to accept any message.
+     * @param action the action to execute.
+     * @param weight the transition priority where lower numbers are matched first.
+     * @return this {@link StateMachineBuilder} for method chaining.
+     */
+    public <E> StateMachineBuilder typedTransition(String in, Class<E> type, String next,
+                                                   BiPredicate<StateContext, ? super E> guard,
+                                                   BiConsumer<StateContext, ? super E> action, int weight) {
+        State nextState = next != null ? getState(next) : null;
+        getState(in).addTransition(new TypedTransition<>(type, nextState, guard, action), weight);
+        return this;
+    }
+
+    /**
+     * Adds an internal {@link Transition} which executes the action but stays in the current {@link State} without
+     * running any entry or exit action.
+     *
+     * @param in      the id of the {@link State}.
+     * @param eventId the id of the {@link de.am.common.sm.event.Event} handled.
+     * @param action  the action to execute.
+     * @return this {@link StateMachineBuilder} for method chaining.
+     */
+    public StateMachineBuilder internalTransition(String in, Object eventId, BiConsumer<StateContext, Object[]> action) {
+        return transition(in, eventId, null, null, action, 0);
+    }
+
+    /**
+     * Adds an action executed whenever the {@link State} is entered.
+     *
+     * @param id     the id of the {@link State}.
+     * @param action the action to execute.
+     * @return this {@link StateMachineBuilder} for method chaining.
+     */
+    public StateMachineBuilder onEntry(String id, BiConsumer<StateContext, State> action) {
+        getState(id).addOnEntrySelfTransaction(new LambdaSelfTransition(action));
+        return this;
+    }
+
+    /**
+     * Adds an action executed whenever the {@link State} is left.
+     *
+     * @param id     the id of the {@link State}.
+     * @param action the action to execute.
+     * @return this {@link StateMachineBuilder} for method chaining.
+     */
+    public StateMachineBuilder onExit(String id, BiConsumer<StateContext, State> action) {
+        getState(id).addOnExitSelfTransaction(new LambdaSelfTransition(action));
+        return this;
+    }
+
+    /**
+     * Sets the timeout of the {@link State}.
+     *
+     * @param id      the id of the {@link State}.
+     * @param timeout the timeout.
+     * @param eventId the id of the {@link de.am.common.sm.event.Event} fired when the timeout expires.
+     * @return this {@link StateMachineBuilder} for method chaining.
+     * @see State#setTimeout(Duration, Object)
+     */
+    public StateMachineBuilder timeout(String id, Duration timeout, Object eventId) {
+        getState(id).setTimeout(timeout, eventId);
+        return this;
+    }
+
+    /**
+     * Declares events deferred by the {@link State}.
+     *
+     * @param id       the id of the {@link State}.
+     * @param eventIds the ids of the deferred {@link de.am.common.sm.event.Event}s.
+     * @return this {@link StateMachineBuilder} for method chaining.
+     * @see State#addDeferredEventId(Object)
+     */
+    public StateMachineBuilder defer(String id, Object... eventIds) {
+        State state = getState(id);
+        for (Object eventId : eventIds) {
+            state.addDeferredEventId(eventId);
+        }
+        return this;
+    }
+
+    /**
+     * Marks the {@link State} as terminal.
+     *
+     * @param id the id of the {@link State}.
+     * @return this {@link StateMachineBuilder} for method chaining.
+     * @see State#setTerminal(boolean)
+     */
+    public StateMachineBuilder terminal(String id) {
+        getState(id).setTerminal(true);
+        return this;
+    }
+
+    /**
+     * Creates the {@link StateMachine}. The {@link State}s are frozen afterwards, so this builder can not be used to
+     * modify them anymore.
+     *
+     * @param start the id of the start {@link State}.
+     * @return the {@link StateMachine}.
+     * @throws StateMachineCreationException if the start {@link State} has not been declared.
+     */
+    public StateMachine build(String start) {
+        if (!states.containsKey(start)) {
+            throw new StateMachineCreationException("Start state '" + start + "' not found.");
+        }
+        return new StateMachine(states.values(), start);
+    }
+
+    // #################################################################################################################
+    private StateMachineBuilder addState(State state) {
+        if (states.putIfAbsent(state.getId(), state) != null) {
+            throw new StateMachineCreationException("State '" + state.getId() + "' has already been declared.");
+        }
+        return this;
+    }
+
+    private State getState(String id) {
+        requireNonNull(id, "NULL is not permitted as value for 'id' parameter.");
+
+        State state = states.get(id);
+        if (state == null) {
+            throw new NoSuchStateException(id);
+        }
+        return state;
+    }
+}
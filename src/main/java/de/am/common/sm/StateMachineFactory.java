@@ -15,30 +15,46 @@
  */
 package de.am.common.sm;
 
+import de.am.common.sm.HandlerMetadata.MethodMetadata;
+import de.am.common.sm.HandlerMetadata.StateDeclaration;
+import de.am.common.sm.HandlerMetadata.TransitionMetadata;
 import de.am.common.sm.annotation.OnEntry;
 import de.am.common.sm.annotation.OnExit;
 import de.am.common.sm.annotation.Transition;
 import de.am.common.sm.annotation.TransitionAnnotation;
 import de.am.common.sm.annotation.Transitions;
-import de.am.common.sm.event.Event;
 import de.am.common.sm.exception.StateMachineCreationException;
+import de.am.common.sm.transition.ContextMethodSelfTransition;
+import de.am.common.sm.transition.ContextMethodTransition;
 import de.am.common.sm.transition.MethodSelfTransition;
 import de.am.common.sm.transition.MethodTransition;
 import de.am.common.sm.transition.SelfTransition;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.util.Arrays.asList;
 import static java.util.Objects.isNull;
@@ -46,6 +62,19 @@ import static java.util.Objects.isNull;
 /**
  * Creates {@link StateMachine}s by reading {@link de.am.common.sm.annotation.State}, {@link Transition} and
  * {@link Transitions} (or equivalent) and {@link SelfTransition} annotations from one or more arbitrary objects.
+ * <p>
+ * Handlers are usually passed as objects, in which case the created {@link MethodTransition}s invoke that object.
+ * A handler passed as {@link Class} only contributes its {@link de.am.common.sm.annotation.State} fields. A handler
+ * class wrapped in {@link ContextHandler#of(Class)} opts in to resolving the handler instance from each
+ * {@link de.am.common.sm.context.StateContext} at dispatch time (see {@link ContextMethodTransition}), so a single
+ * machine can serve many contexts with their own handler instances.
+ * </p>
+ * <p>
+ * The annotations of a handler class are parsed only once per factory. Creating further {@link StateMachine}s from the
+ * same handler classes, for example one per tenant, only binds the new handler instances to the cached declarations.
+ * The parsed declarations can also be saved with {@link #writeMetadata(Path, Class[])} and loaded by a later process
+ * with {@link #readMetadata(Path)}, which then skips the annotation scan for all handler classes that are unchanged.
+ * </p>
  *
  * @author Martin Absmeier
  */
@@ -53,6 +82,8 @@ public class StateMachineFactory {
 
     private static final String ERROR_MESSAGE_METHOD = "Error encountered when processing method ";
     private static final String ERROR_MESSAGE_FIELD = "Error encountered when processing field ";
+    /* "SMD" followed by the version of the metadata file format. */
+    private static final int METADATA_MAGIC = 0x534D4401;
 
     private final Class<? extends Annotation> transitionAnnotation;
 
@@ -62,6 +93,22 @@ public class StateMachineFactory {
 
     private final Class<? extends Annotation> exitSelfTransitionsAnnotation;
 
+    /* Metadata read by readMetadata(Path), taken over by handlerMetadata when a class is used for the first time. */
+    private final Map<Class<?>, HandlerMetadata> preloadedMetadata = new ConcurrentHashMap<>();
+
+    /* Classes whose metadata handlerMetadata has computed already; readMetadata(Path) skips them. */
+    private final Set<Class<?>> resolvedClasses = ConcurrentHashMap.newKeySet();
+
+    /* Parsed handler classes. Cached per factory because the metadata depends on the transition annotation types. */
+    private final ClassValue<HandlerMetadata> handlerMetadata = new ClassValue<>() {
+        @Override
+        protected HandlerMetadata computeValue(Class<?> type) {
+            resolvedClasses.add(type);
+            HandlerMetadata metadata = preloadedMetadata.remove(type);
+            return metadata != null ? metadata : HandlerMetadata.scan(type, transitionAnnotation, transitionsAnnotation);
+        }
+    };
+
     /**
      * Creates a new factory with the supplied annotation types.
      *
@@ -148,11 +195,13 @@ public class StateMachineFactory {
         handlersList.add(handler);
         handlersList.addAll(asList(handlers));
 
-        LinkedList<Field> fields = new LinkedList<>();
-        for (Object h : handlersList) {
-            fields.addAll(getFields(h instanceof Class ? (Class<?>) h : h.getClass()));
+        List<HandlerMetadata> metadata = scanHandlers(handlersList);
+
+        LinkedList<StateDeclaration> declarations = new LinkedList<>();
+        for (HandlerMetadata m : metadata) {
+            declarations.addAll(m.getStates());
         }
-        for (State state : createStates(fields)) {
+        for (State state : buildStates(declarations)) {
             states.put(state.getId(), state);
         }
 
@@ -160,67 +209,139 @@ public class StateMachineFactory {
             throw new StateMachineCreationException("Start state '" + start + "' not found.");
         }
 
-        setupTransitions(transitionAnnotation, transitionsAnnotation, entrySelfTransitionsAnnotation, exitSelfTransitionsAnnotation, states, handlersList);
+        for (int i = 0; i < handlersList.size(); i++) {
+            Object h = handlersList.get(i);
+            /* A bare handler class has no instance to invoke, it only declares states. */
+            if (!(h instanceof Class)) {
+                setupTransitions(states, h, metadata.get(i));
+            }
+        }
 
         return new StateMachine(states.values(), start);
     }
 
-    private static void setupTransitions(Class<? extends Annotation> transitionAnnotation,
-                                         Class<? extends Annotation> transitionsAnnotation, Class<? extends Annotation> onEntrySelfTransitionAnnotation,
-                                         Class<? extends Annotation> onExitSelfTransitionAnnotation, Map<String, State> states, List<Object> handlers) {
-        for (Object handler : handlers) {
-            setupTransitions(transitionAnnotation, transitionsAnnotation, onEntrySelfTransitionAnnotation, onExitSelfTransitionAnnotation,
-                             states, handler);
+    /**
+     * Writes the parsed annotations of the specified handler classes to a binary file. Each class is stored together
+     * with a checksum of its class file, so {@link #readMetadata(Path)} can ignore classes which have changed since.
+     *
+     * @param file           the file to write.
+     * @param handlerClasses the handler classes.
+     * @throws IOException if the file can not be written.
+     */
+    public void writeMetadata(Path file, Class<?>... handlerClasses) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(METADATA_MAGIC);
+            out.writeUTF(transitionAnnotation.getName());
+            out.writeInt(handlerClasses.length);
+            for (Class<?> clazz : handlerClasses) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                handlerMetadata.get(clazz).write(new DataOutputStream(bytes));
+
+                out.writeUTF(clazz.getName());
+                out.writeLong(HandlerMetadata.fingerprint(clazz));
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+            }
         }
     }
 
-    private static void setupSelfTransitions(Method m, Class<? extends Annotation> onEntrySelfTransitionAnnotation,
-                                             Class<? extends Annotation> onExitSelfTransitionAnnotation, Map<String, State> states, Object handler) {
-        if (m.isAnnotationPresent(OnEntry.class)) {
-            OnEntry onEntryAnnotation = (OnEntry) m.getAnnotation(onEntrySelfTransitionAnnotation);
-            State state = states.get(onEntryAnnotation.value());
-            if (state == null) {
-                throw new StateMachineCreationException("Error encountered when processing onEntry annotation in method " + m + ". state " + onEntryAnnotation.value() + " not Found.");
+    /**
+     * Reads a file written by {@link #writeMetadata(Path, Class[])}. The file is memory mapped. The metadata of every
+     * handler class which can be loaded and whose class file is unchanged is used by this factory instead of scanning
+     * the class. Classes which have already been used by this factory, or which have changed, are skipped.
+     *
+     * @param file the file to read.
+     * @return the number of handler classes read from the file.
+     * @throws IOException                   if the file can not be read.
+     * @throws StateMachineCreationException if the file is not a metadata file.
+     */
+    public int readMetadata(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+            if (buffer.remaining() < Integer.BYTES || in.readInt() != METADATA_MAGIC) {
+                throw new StateMachineCreationException("File " + file + " is not a state machine metadata file.");
+            }
+            if (!transitionAnnotation.getName().equals(in.readUTF())) {
+                return 0;
+            }
 
+            int count = 0;
+            for (int i = in.readInt(); i > 0; i--) {
+                String className = in.readUTF();
+                long fingerprint = in.readLong();
+                int length = in.readInt();
+                int end = buffer.position() + length;
+
+                Class<?> clazz = loadClass(className);
+                if (clazz != null && !resolvedClasses.contains(clazz)
+                    && fingerprint != -1 && fingerprint == HandlerMetadata.fingerprint(clazz)) {
+                    try {
+                        preloadedMetadata.put(clazz, HandlerMetadata.read(in, clazz));
+                        /* The class may have been resolved concurrently, then the preloaded metadata is never used. */
+                        if (resolvedClasses.contains(clazz)) {
+                            preloadedMetadata.remove(clazz);
+                        } else {
+                            count++;
+                        }
+                    } catch (StateMachineCreationException smce) {
+                        /* The class is scanned as usual. */
+                    }
+                }
+                buffer.position(end);
             }
-            state.addOnEntrySelfTransaction(new MethodSelfTransition(m, handler));
+            return count;
         }
+    }
 
-        if (m.isAnnotationPresent(OnExit.class)) {
-            OnExit onExitAnnotation = (OnExit) m.getAnnotation(onExitSelfTransitionAnnotation);
-            State state = states.get(onExitAnnotation.value());
-            if (state == null) {
-                throw new StateMachineCreationException("Error encountered when processing onExit annotation in method " + m + ". state " + onExitAnnotation.value() + " not Found.");
+    /**
+     * Returns the metadata of the handler classes. Classes which have not been scanned by this factory before are
+     * scanned in parallel; the results keep the order of the handlers to make the transition order deterministic.
+     */
+    private List<HandlerMetadata> scanHandlers(List<Object> handlers) {
+        Stream<Object> stream = handlers.size() > 1 ? handlers.parallelStream() : handlers.stream();
+        return stream
+            .map(h -> handlerMetadata.get(handlerClassOf(h)))
+            .collect(Collectors.toList());
+    }
 
+    private static void setupTransitions(Map<String, State> states, Object handler, HandlerMetadata metadata) {
+        for (MethodMetadata methodMetadata : metadata.getMethods()) {
+            Method method = methodMetadata.getMethod();
+            setupSelfTransitions(methodMetadata, states, handler);
+
+            for (TransitionMetadata transition : methodMetadata.getTransitions()) {
+                State next = getNextState(states, method, transition);
+                for (Object event : transition.getOn()) {
+                    for (String in : transition.getIn()) {
+                        State state = states.get(in);
+                        if (isNull(state)) {
+                            throw new StateMachineCreationException(ERROR_MESSAGE_METHOD + method + ". Unknown state: " + in + ".");
+                        }
+                        state.addTransition(createTransition(event, next, method, handler), transition.getWeight());
+                    }
+                }
             }
-            state.addOnExitSelfTransaction(new MethodSelfTransition(m, handler));
         }
     }
 
-    private static void setupTransitions(Class<? extends Annotation> transitionAnnotation,
-                                         Class<? extends Annotation> transitionsAnnotation,
-                                         Class<? extends Annotation> onEntrySelfTransitionAnnotation,
-                                         Class<? extends Annotation> onExitSelfTransitionAnnotation,
-                                         Map<String, State> states,
-                                         Object handler) {
-
-        Method[] methods = getAndSortMethods(handler);
-        for (Method method : methods) {
-            setupSelfTransitions(method, onEntrySelfTransitionAnnotation, onExitSelfTransitionAnnotation, states, handler);
-
-            List<TransitionWrapper> transitionAnnotations = getTransitionAnnotations(transitionAnnotation, transitionsAnnotation, method);
-            if (!transitionAnnotations.isEmpty()) {
-                for (TransitionWrapper annotation : transitionAnnotations) {
-                    Object[] eventIds = annotation.on();
-                    checkIdsAndAnnotation(method, eventIds, annotation);
-                    
-                    for (Object event : eventIds) {
-                        event = getEvent(event);
-
-                        extracted(states, handler, method, annotation, event);
-                    }
-                }
+    private static void setupSelfTransitions(MethodMetadata methodMetadata, Map<String, State> states, Object handler) {
+        Method m = methodMetadata.getMethod();
+
+        if (methodMetadata.getOnEntry() != null) {
+            State state = states.get(methodMetadata.getOnEntry());
+            if (state == null) {
+                throw new StateMachineCreationException("Error encountered when processing onEntry annotation in method " + m + ". state " + methodMetadata.getOnEntry() + " not Found.");
+            }
+            state.addOnEntrySelfTransaction(createSelfTransition(m, handler));
+        }
+
+        if (methodMetadata.getOnExit() != null) {
+            State state = states.get(methodMetadata.getOnExit());
+            if (state == null) {
+                throw new StateMachineCreationException("Error encountered when processing onExit annotation in method " + m + ". state " + methodMetadata.getOnExit() + " not Found.");
             }
+            state.addOnExitSelfTransaction(createSelfTransition(m, handler));
         }
     }
 
@@ -255,190 +376,120 @@ public class StateMachineFactory {
      * @return the created states in parent-before-child order.
      */
     public static State[] createStates(List<Field> fields) {
-        LinkedHashMap<String, State> states = new LinkedHashMap<>();
-
-        while (!fields.isEmpty()) {
-            int size = fields.size();
-            int numStates = states.size();
-            for (int i = 0; i < size; i++) {
-                Field f = fields.remove(0);
-
-                String value;
-                try {
-                    value = (String) f.get(null);
-                } catch (IllegalAccessException iae) {
-                    throw new StateMachineCreationException(ERROR_MESSAGE_FIELD + f + ".", iae);
-                }
-
-                de.am.common.sm.annotation.State stateAnnotation = f.getAnnotation(de.am.common.sm.annotation.State.class);
-                if (stateAnnotation.value().equals(de.am.common.sm.annotation.State.ROOT)) {
-                    states.put(value, new State(value));
-                } else if (states.containsKey(stateAnnotation.value())) {
-                    states.put(value, new State(value, states.get(stateAnnotation.value())));
-                } else {
-                    // Move to the back of the list of fields for later processing
-                    fields.add(f);
-                }
-            }
-
-            /*
-             * If no new states were added to states during this iteration it means that all fields in fields specify non-existent parents.
-             */
-            if (states.size() == numStates) {
-                throw new StateMachineCreationException("Error encountered while creating FSM. The following fields specify non-existing parent states: " + fields);
-            }
+        LinkedList<StateDeclaration> declarations = new LinkedList<>();
+        for (Field f : fields) {
+            declarations.add(StateDeclaration.of(f));
         }
-
-        return states.values().toArray(State[]::new);
+        return buildStates(declarations);
     }
 
     // #################################################################################################################
-    private static Method[] getAndSortMethods(Object handler) {
-        Method[] methods = handler.getClass().getDeclaredMethods();
-        Arrays.sort(methods, Comparator.comparing(Method::toString));
-        return methods;
+    private static Class<?> loadClass(String className) {
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        try {
+            return Class.forName(className, false, cl != null ? cl : StateMachineFactory.class.getClassLoader());
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
     }
 
-    private static List<TransitionWrapper> getTransitionAnnotations(Class<? extends Annotation> transitionAnnotation,
-                                                                    Class<? extends Annotation> transitionsAnnotation,
-                                                                    Method method) {
-
-        List<TransitionWrapper> transitionAnnotations = new ArrayList<>();
-
-        if (method.isAnnotationPresent(transitionAnnotation)) {
-            transitionAnnotations.add(
-                new TransitionWrapper(transitionAnnotation, method.getAnnotation(transitionAnnotation)));
-        }
-        if (method.isAnnotationPresent(transitionsAnnotation)) {
-            transitionAnnotations.addAll(
-                asList(new TransitionsWrapper(transitionAnnotation, transitionsAnnotation, method
-                    .getAnnotation(transitionsAnnotation)).value()));
+    private static Class<?> handlerClassOf(Object handler) {
+        if (handler instanceof ContextHandler) {
+            return ((ContextHandler) handler).getHandlerClass();
         }
-
-        return transitionAnnotations;
+        return handler instanceof Class ? (Class<?>) handler : handler.getClass();
     }
 
-    private static void checkIdsAndAnnotation(Method method, Object[] eventIds, TransitionWrapper annotation) {
-        if (eventIds.length == 0) {
-            throw new StateMachineCreationException(ERROR_MESSAGE_METHOD + method + ". No event ids specified.");
-        }
-        if (annotation.in().length == 0) {
-            throw new StateMachineCreationException(ERROR_MESSAGE_METHOD + method + ". No states specified.");
+    private static MethodTransition createTransition(Object event, State next, Method method, Object handler) {
+        if (handler instanceof ContextHandler) {
+            return new ContextMethodTransition(event, next, method, ((ContextHandler) handler).getHandlerClass());
         }
+        return new MethodTransition(event, next, method, handler);
     }
 
-    private static Object getEvent(Object event) {
-        if (isNull(event)) {
-            event = Event.WILDCARD_EVENT_ID;
-        }
-        if (!(event instanceof String)) {
-            event = event.toString();
+    private static MethodSelfTransition createSelfTransition(Method method, Object handler) {
+        if (handler instanceof ContextHandler) {
+            return new ContextMethodSelfTransition(method, ((ContextHandler) handler).getHandlerClass());
         }
-        return event;
+        return new MethodSelfTransition(method, handler);
     }
 
-    private static void extracted(Map<String, State> states, Object handler, Method method, TransitionWrapper annotation, Object event) {
-        for (String in : annotation.in()) {
-            State state = states.get(in);
-            if (isNull(state)) {
-                throw new StateMachineCreationException(ERROR_MESSAGE_METHOD + method + ". Unknown state: " + in + ".");
+    private static State[] buildStates(LinkedList<StateDeclaration> declarations) {
+        LinkedHashMap<String, State> states = new LinkedHashMap<>();
+
+        while (!declarations.isEmpty()) {
+            int size = declarations.size();
+            int numStates = states.size();
+            for (int i = 0; i < size; i++) {
+                StateDeclaration declaration = declarations.removeFirst();
+
+                String id = declaration.getId();
+                String parent = declaration.getParent();
+                State state;
+                if (parent.equals(de.am.common.sm.annotation.State.ROOT)) {
+                    state = new State(id);
+                } else if (states.containsKey(parent)) {
+                    state = new State(id, states.get(parent));
+                } else {
+                    // Move to the back of the list of declarations for later processing
+                    declarations.addLast(declaration);
+                    continue;
+                }
+                state.setTimeout(declaration.getTimeout(), declaration.getTimeoutEventId());
+                state.setTerminal(declaration.isTerminal());
+                for (String eventId : declaration.getDeferredEventIds()) {
+                    state.addDeferredEventId(eventId);
+                }
+                states.put(id, state);
             }
 
-            State next = getState(states, method, annotation);
-            state.addTransition(new MethodTransition(event, next, method, handler), annotation.weight());
+            /*
+             * If no new states were added to states during this iteration it means that all remaining declarations specify non-existent parents.
+             */
+            if (states.size() == numStates) {
+                throw new StateMachineCreationException("Error encountered while creating FSM. The following fields specify non-existing parent states: " + declarations);
+            }
         }
+
+        return states.values().toArray(State[]::new);
     }
 
-    private static State getState(Map<String, State> states, Method method, TransitionWrapper annotation) {
+    private static State getNextState(Map<String, State> states, Method method, TransitionMetadata transition) {
         State next = null;
-        if (!annotation.next().equals(Transition.SELF)) {
-            next = states.get(annotation.next());
+        if (!transition.getNext().equals(Transition.SELF)) {
+            next = states.get(transition.getNext());
             if (isNull(next)) {
-                throw new StateMachineCreationException(ERROR_MESSAGE_METHOD + method + ". Unknown next state: " + annotation.next() + ".");
+                throw new StateMachineCreationException(ERROR_MESSAGE_METHOD + method + ". Unknown next state: " + transition.getNext() + ".");
             }
         }
         return next;
     }
 
-    private static class TransitionWrapper {
-
-        private final Class<? extends Annotation> transitionClazz;
-
-        private final Annotation annotation;
-
-        public TransitionWrapper(Class<? extends Annotation> transitionClazz, Annotation annotation) {
-            this.transitionClazz = transitionClazz;
-            this.annotation = annotation;
-        }
-
-        Object[] on() {
-            return getParameter("on", Object[].class);
-        }
+    /* Reads a (memory mapped) buffer without copying it. */
+    private static final class ByteBufferInputStream extends InputStream {
 
-        String[] in() {
-            return getParameter("in", String[].class);
-        }
+        private final ByteBuffer buffer;
 
-        String next() {
-            return getParameter("next", String.class);
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
         }
 
-        int weight() {
-            return getParameter("weight", Integer.TYPE);
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
         }
 
-        @SuppressWarnings("unchecked")
-        private <T> T getParameter(String name, Class<T> returnType) {
-            try {
-                Method m = transitionClazz.getMethod(name);
-                if (!returnType.isAssignableFrom(m.getReturnType())) {
-                    throw new NoSuchMethodException();
-                }
-                return (T) m.invoke(annotation);
-            } catch (IllegalAccessException | IllegalArgumentException | NoSuchMethodException | SecurityException |
-                     InvocationTargetException t) {
-                String message = "Could not get parameter '" + name + "' from Transition annotation " + transitionClazz;
-                throw new StateMachineCreationException(message, t);
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
             }
-        }
-    }
-
-    private static class TransitionsWrapper {
-
-        private final Class<? extends Annotation> transitionsClazz;
-
-        private final Class<? extends Annotation> transitionClazz;
-
-        private final Annotation annotation;
-
-        protected TransitionsWrapper(Class<? extends Annotation> transitionClazz,
-                                  Class<? extends Annotation> transitionsClazz,
-                                  Annotation annotation) {
-            this.transitionClazz = transitionClazz;
-            this.transitionsClazz = transitionsClazz;
-            this.annotation = annotation;
-        }
-
-        TransitionWrapper[] value() {
-            Annotation[] annos = getParameter("value", Annotation[].class);
-            TransitionWrapper[] wrappers = new TransitionWrapper[annos.length];
-            for (int i = 0; i < annos.length; i++) {
-                wrappers[i] = new TransitionWrapper(transitionClazz, annos[i]);
-            }
-            return wrappers;
-        }
-
-        private <T> T getParameter(String name, Class<T> returnType) {
-            try {
-                Method method = transitionsClazz.getMethod(name);
-                if (!returnType.isAssignableFrom(method.getReturnType())) {
-                    throw new NoSuchMethodException();
-                }
-                return (T) method.invoke(annotation);
-            } catch (IllegalAccessException | NoSuchMethodException | InvocationTargetException ex) {
-                String message = "Could not get parameter '" + name + "' from Transitions annotation " + transitionsClazz;
-                throw new StateMachineCreationException(message, ex);
+            if (!buffer.hasRemaining()) {
+                return -1;
             }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
         }
     }
-}
\ No newline at end of file
+}
@@ -42,6 +42,18 @@ import static java.util.Objects.isNull;
  * command-style interfaces with {@code void} methods are supported; non-void interface methods are rejected when the
  * proxy is created.
  * </p>
+ * <p>
+ * The {@link StateContextLookup} is {@link StateMachine#addStateContextLookup(StateContextLookup) registered} with the
+ * {@link StateMachine}, so a {@link StateContext} which has entered a {@link State#isTerminal() terminal state} is
+ * removed from it and finished contexts do not stay stored. Without an {@link EventLoopGroup}, the lookup and the
+ * processing of the {@link Event} take place under the lock of the {@link StateMachine}, so a method call never
+ * dispatches into a {@link StateContext} which has been removed in between.
+ * </p>
+ * <p>
+ * With an {@link EventLoopGroup} the events are processed asynchronously on the loop thread of their
+ * {@link StateContext}. The {@link StateContextLookup} must then be thread-safe. The {@link StateContext} is looked up
+ * again on the loop thread before the {@link Event} is processed.
+ * </p>
  *
  * @author Martin Absmeier
  */
@@ -54,6 +66,7 @@ public class StateMachineProxyBuilder {
     private EventArgumentsInterceptor interceptor = null;
     private boolean ignoreUnhandledEvents = false;
     private boolean ignoreStateContextLookupFailure = false;
+    private EventLoopGroup eventLoopGroup = null;
     private String name = null;
     /* The classloader to use. If null we will use the current thread's context classloader. */
     private ClassLoader defaultCl = null;
@@ -133,6 +146,22 @@ public class StateMachineProxyBuilder {
         return this;
     }
 
+    /**
+     * Sets the {@link EventLoopGroup} which processes the events of the proxy. Method calls then return as soon as the
+     * event has been submitted to the loop of its {@link StateContext}. Unless unhandled events are
+     * {@link #setIgnoreUnhandledEvents(boolean) ignored}, the {@link UnhandledEventException} is raised on the loop
+     * thread and logged there, since the method call has already returned. The default is to
+     * process the event in the calling thread, unless the {@link StateMachine} is processed by an open
+     * {@link EventLoopGroup} when the method is called, which is then used instead.
+     *
+     * @param eventLoopGroup the {@link EventLoopGroup} or <code>null</code>.
+     * @return this {@link StateMachineProxyBuilder} for method chaining.
+     */
+    public StateMachineProxyBuilder setEventLoopGroup(EventLoopGroup eventLoopGroup) {
+        this.eventLoopGroup = eventLoopGroup;
+        return this;
+    }
+
     /**
      * Sets the class loader to use for instantiating proxies. The default is to use the current threads context {@link ClassLoader} as
      * returned by {@link Thread#getContextClassLoader()}.
@@ -171,14 +200,18 @@ public class StateMachineProxyBuilder {
      */
     public Object create(Class<?>[] ifaces, StateMachine sm) {
         validateProxyInterfaces(ifaces);
+        if (eventLoopGroup != null && eventLoopGroup != sm.getEventLoopGroup()) {
+            throw new IllegalArgumentException("The event loop group does not process the specified state machine.");
+        }
 
         ClassLoader cl = defaultCl;
         if (isNull(cl)) {
             cl = Thread.currentThread().getContextClassLoader();
         }
 
-        InvocationHandler handler = new MethodInvocationHandler(
-            sm, contextLookup, interceptor, eventFactory, ignoreUnhandledEvents, ignoreStateContextLookupFailure, name);
+        sm.addStateContextLookup(contextLookup);
+        InvocationHandler handler = new MethodInvocationHandler(sm, contextLookup, interceptor, eventFactory,
+            ignoreUnhandledEvents, ignoreStateContextLookupFailure, eventLoopGroup, name);
         return Proxy.newProxyInstance(cl, ifaces, handler);
     }
 
@@ -201,6 +234,7 @@ public class StateMachineProxyBuilder {
         private final EventFactory eventFactory;
         private final boolean ignoreUnhandledEvents;
         private final boolean ignoreStateContextLookupFailure;
+        private final EventLoopGroup eventLoopGroup;
         private final String name;
 
         protected MethodInvocationHandler(StateMachine sm,
@@ -209,6 +243,7 @@ public class StateMachineProxyBuilder {
                                        EventFactory eventFactory,
                                        boolean ignoreUnhandledEvents,
                                        boolean ignoreStateContextLookupFailure,
+                                       EventLoopGroup eventLoopGroup,
                                        String name) {
             this.contextLookup = contextLookup;
             this.sm = sm;
@@ -216,6 +251,7 @@ public class StateMachineProxyBuilder {
             this.eventFactory = eventFactory;
             this.ignoreUnhandledEvents = ignoreUnhandledEvents;
             this.ignoreStateContextLookupFailure = ignoreStateContextLookupFailure;
+            this.eventLoopGroup = eventLoopGroup;
             this.name = name;
         }
 
@@ -237,29 +273,78 @@ public class StateMachineProxyBuilder {
 
             args = getArguments(args);
 
-            StateContext context = contextLookup.lookup(args);
-
-            if (context == null) {
-                if (ignoreStateContextLookupFailure) {
-                    return null;
+            /* Drop events no state handles before a context is looked up, which might create and store a new one. */
+            Object eventId = ignoreUnhandledEvents ? eventFactory.getEventId(method, args) : null;
+            if (eventId != null && !sm.isAcceptedEventId(eventId)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Ignoring event {} since no state handles it.", eventId);
                 }
-                throw new IllegalStateException("Cannot determine state context for method invocation: " + method);
+                return null;
             }
 
-            Event event = eventFactory.create(context, method, args);
-
-            try {
-                sm.handle(event);
-            } catch (UnhandledEventException uee) {
-                if (!ignoreUnhandledEvents) {
-                    throw uee;
+            EventLoopGroup group = eventLoopGroup != null ? eventLoopGroup : sm.getEventLoopGroup();
+            if (group != null) {
+                StateContext context = lookup(method, args);
+                if (context != null) {
+                    submit(group, context, method, args);
                 }
+                return null;
             }
 
+            /* A context removed by another thread after the lookup would otherwise receive the event. */
+            Object[] eventArgs = args;
+            sm.runLocked(() -> {
+                StateContext context = lookup(method, eventArgs);
+                if (context == null) {
+                    return;
+                }
+                Event event = eventFactory.create(context, method, eventArgs);
+                if (ignoreUnhandledEvents) {
+                    /* Ignored events are common, so avoid creating an exception for each of them. */
+                    sm.tryHandle(event);
+                } else {
+                    sm.handle(event);
+                }
+            });
+
             return null;
         }
 
         // #############################################################################################################
+        private StateContext lookup(Method method, Object[] args) {
+            StateContext context = contextLookup.lookup(args);
+            if (context == null && !ignoreStateContextLookupFailure) {
+                throw new IllegalStateException("Cannot determine state context for method invocation: " + method);
+            }
+            return context;
+        }
+
+        /* The context may have entered a terminal state and been removed before the loop runs the task, so it is
+         * looked up again there and the task moves on to the loop of a new context. */
+        private void submit(EventLoopGroup group, StateContext context, Method method, Object[] args) {
+            group.execute(context, () -> {
+                StateContext current = contextLookup.lookup(args);
+                if (current == null) {
+                    log.warn("Cannot determine state context for method invocation: {}", method);
+                    return;
+                }
+                if (current != context && !group.isLoopThread(current)) {
+                    submit(group, current, method, args);
+                    return;
+                }
+                Event event = eventFactory.create(current, method, args);
+                if (sm.dispatchOnLoop(event, !ignoreUnhandledEvents) == DispatchResult.UNHANDLED) {
+                    if (!ignoreUnhandledEvents) {
+                        /* Logged by the loop, the caller has returned already. */
+                        throw new UnhandledEventException(event);
+                    }
+                    if (log.isDebugEnabled()) {
+                        log.debug("Event {} was not handled.", event);
+                    }
+                }
+            });
+        }
+
         private Object[] getArguments(Object[] args) {
             args = args == null ? EMPTY_ARGUMENTS : args;
             if (interceptor != null) {
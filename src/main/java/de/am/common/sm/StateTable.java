@@ -0,0 +1,448 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm;
+
+import de.am.common.sm.context.StateContext;
+import de.am.common.sm.event.Event;
+import de.am.common.sm.exception.BreakAndCallException;
+import de.am.common.sm.exception.BreakAndContinueException;
+import de.am.common.sm.exception.BreakAndGotoException;
+import de.am.common.sm.exception.BreakAndReturnException;
+import de.am.common.sm.exception.NoSuchStateException;
+import de.am.common.sm.transition.AbstractTransition;
+import de.am.common.sm.transition.LambdaTransition;
+import de.am.common.sm.transition.NoopTransition;
+import de.am.common.sm.transition.Transition;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Dense next-state table of a {@link StateMachine} whose {@link Transition}s are selected by the {@link Event} id
+ * alone, i.e. which only has {@link NoopTransition}s and {@link LambdaTransition}s without guard and no wildcard
+ * transitions.
+ * <p>
+ * States and event ids are mapped to ordinals, and the next state of every (state, event) pair is kept in a single
+ * <code>int[]</code>, with the hierarchical lookup through the parent states and the transition weights already
+ * resolved. {@link #next(int, int)} is a single array access, which makes the table suitable for driving a machine
+ * per byte or per record from primitive state held by the caller. The actions of {@link LambdaTransition}s are kept in
+ * a parallel table and run by {@link #fire(int, int, StateContext, Object[])}. Whole batches of events for many
+ * contexts can be applied with {@link #advance(int[], int[], int[])} without any {@link StateContext} objects.
+ * </p>
+ * <p>
+ * The table does not run entry and exit actions and does not arm timeouts or defer events; {@link StateMachine} uses
+ * it to select transitions and still performs the state change itself.
+ * </p>
+ *
+ * @author Martin Absmeier
+ */
+public final class StateTable {
+
+    /**
+     * Returned by {@link #next(int, int)} and {@link #eventOrdinal(Object)} if there is no transition or event id.
+     */
+    public static final int UNHANDLED = -1;
+
+    /* Stored for transitions without next state, which stay in the current state without running any hooks. */
+    private static final int LOOPBACK = -2;
+
+    private final State[] states;
+    /* Only used for states whose slot belongs to another table, e.g. after they were compiled again. */
+    private final Map<State, Integer> stateOrdinals = new IdentityHashMap<>();
+    /* Open addressing table of the event ids and their ordinals, so a lookup neither boxes nor allocates. */
+    private final Object[] eventIds;
+    private final int[] eventIdOrdinals;
+    private final int eventCount;
+    private final int[] next;
+    private final LambdaTransition[] actions;
+
+    private StateTable(State[] states, Object[] eventIds) {
+        this.states = states;
+        for (int i = 0; i < states.length; i++) {
+            stateOrdinals.put(states[i], i);
+            states[i].setTableSlot(new Slot(this, i));
+        }
+        int capacity = Integer.highestOneBit(Math.max(eventIds.length, 1) * 2 + 1) << 1;
+        this.eventIds = new Object[capacity];
+        this.eventIdOrdinals = new int[capacity];
+        for (int i = 0; i < eventIds.length; i++) {
+            int slot = slot(eventIds[i]);
+            while (this.eventIds[slot] != null) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            this.eventIds[slot] = eventIds[i];
+            this.eventIdOrdinals[slot] = i;
+        }
+        this.eventCount = eventIds.length;
+        this.next = new int[states.length * eventCount];
+        this.actions = new LambdaTransition[states.length * eventCount];
+        Arrays.fill(next, UNHANDLED);
+
+        for (int s = 0; s < states.length; s++) {
+            /* The first matching transition wins, walking from the state up through its parents. A state deferring an
+             * event it has no transition for stops the walk, the event is left to StateMachine then. */
+            boolean[] resolved = new boolean[eventCount];
+            for (State state = states[s]; state != null; state = state.getParent()) {
+                for (Transition transition : state.getTransitionArray()) {
+                    int e = eventOrdinal(((AbstractTransition) transition).getEventId());
+                    if (resolved[e]) {
+                        continue;
+                    }
+                    resolved[e] = true;
+                    State nextState = transition.getNextState();
+                    next[s * eventCount + e] = nextState == null ? LOOPBACK : stateOrdinals.get(nextState);
+                    actions[s * eventCount + e] = transition instanceof NoopTransition ? null : (LambdaTransition) transition;
+                }
+                for (Object eventId : state.getDeferredEventIds()) {
+                    int e = eventOrdinal(eventId);
+                    if (e != UNHANDLED) {
+                        resolved[e] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Compiles the specified {@link State}s into a {@link StateTable}.
+     *
+     * @param states the {@link State}s, including all parents and next states.
+     * @return the {@link StateTable} or <code>null</code> if the {@link State}s use {@link Transition}s which can not
+     * be selected by event id alone.
+     */
+    static StateTable compile(Collection<State> states) {
+        Set<State> known = Collections.newSetFromMap(new IdentityHashMap<>());
+        known.addAll(states);
+
+        Set<Object> eventIds = new LinkedHashSet<>();
+        for (State state : states) {
+            if (state.getParent() != null && !known.contains(state.getParent())) {
+                return null;
+            }
+            for (Transition transition : state.getTransitionArray()) {
+                if (!isTableDriven(transition)) {
+                    return null;
+                }
+                State nextState = transition.getNextState();
+                if (nextState != null && !known.contains(nextState)) {
+                    return null;
+                }
+                eventIds.add(((AbstractTransition) transition).getEventId());
+            }
+        }
+        return new StateTable(states.toArray(new State[0]), eventIds.toArray());
+    }
+
+    /**
+     * Returns the number of states.
+     *
+     * @return the number of states.
+     */
+    public int getStateCount() {
+        return states.length;
+    }
+
+    /**
+     * Returns the number of distinct event ids.
+     *
+     * @return the number of event ids.
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Returns the ordinal of the specified {@link State}.
+     *
+     * @param state the {@link State}.
+     * @return the ordinal or {@link #UNHANDLED} if the {@link State} is not part of this table.
+     */
+    public int stateOrdinal(State state) {
+        Slot slot = state.getTableSlot();
+        if (slot != null && slot.table() == this) {
+            return slot.ordinal();
+        }
+        Integer ordinal = stateOrdinals.get(state);
+        return ordinal != null ? ordinal : UNHANDLED;
+    }
+
+    /**
+     * Returns the ordinal of the specified event id.
+     *
+     * @param eventId the event id.
+     * @return the ordinal or {@link #UNHANDLED} if no {@link State} handles the event id.
+     */
+    public int eventOrdinal(Object eventId) {
+        if (eventId == null) {
+            return UNHANDLED;
+        }
+        int mask = eventIds.length - 1;
+        for (int slot = slot(eventId); ; slot = (slot + 1) & mask) {
+            Object id = eventIds[slot];
+            if (id == null) {
+                return UNHANDLED;
+            }
+            if (id == eventId || id.equals(eventId)) {
+                return eventIdOrdinals[slot];
+            }
+        }
+    }
+
+    /**
+     * Returns the {@link State} with the specified ordinal.
+     *
+     * @param ordinal the ordinal.
+     * @return the {@link State}.
+     */
+    public State getState(int ordinal) {
+        return states[ordinal];
+    }
+
+    /**
+     * Returns the ordinal of the next state.
+     *
+     * @param state the ordinal of the current state.
+     * @param event the ordinal of the event or {@link #UNHANDLED}.
+     * @return the ordinal of the next state or {@link #UNHANDLED}, which is also returned for the event ordinal
+     * {@link #UNHANDLED}.
+     * @throws IllegalArgumentException if the event ordinal is out of range.
+     */
+    public int next(int state, int event) {
+        if (event == UNHANDLED) {
+            return UNHANDLED;
+        }
+        checkEvent(event);
+        int n = next[state * eventCount + event];
+        return n == LOOPBACK ? state : n;
+    }
+
+    /**
+     * Runs the action of the transition for the specified state and event, if there is one, and returns the ordinal of
+     * the next state. The action is called directly, no {@link Event} is created.
+     * <p>
+     * An action may use {@link StateControl#breakAndGotoNow(String)} and {@link StateControl#breakAndGotoNext(String)}:
+     * the ordinal of that state is returned, after firing the event again in it for the former. An action using
+     * {@link StateControl#breakAndContinue()} leaves the event unhandled, since the table only keeps the first matching
+     * transition. Calls and returns need the call stack of a {@link StateMachine} and are not supported.
+     * </p>
+     *
+     * @param state     the ordinal of the current state.
+     * @param event     the ordinal of the event or {@link #UNHANDLED}.
+     * @param context   the {@link StateContext} passed to the action.
+     * @param arguments the arguments passed to the action.
+     * @return the ordinal of the next state or {@link #UNHANDLED}, which is also returned for the event ordinal
+     * {@link #UNHANDLED}.
+     * @throws NoSuchStateException     if the action goes to a state which is not part of this table.
+     * @throws IllegalStateException    if the action calls a state or returns from one.
+     * @throws IllegalArgumentException if the event ordinal is out of range.
+     */
+    public int fire(int state, int event, StateContext context, Object[] arguments) {
+        if (event == UNHANDLED) {
+            return UNHANDLED;
+        }
+        checkEvent(event);
+        int cell = state * eventCount + event;
+        int n = next[cell];
+        if (n == UNHANDLED) {
+            return UNHANDLED;
+        }
+        LambdaTransition action = actions[cell];
+        if (action != null) {
+            try {
+                action.getAction().accept(context, arguments);
+            } catch (BreakAndContinueException bace) {
+                return UNHANDLED;
+            } catch (BreakAndGotoException bage) {
+                int target = stateOrdinal(bage.getStateId());
+                return bage.isNow() ? fire(target, event, context, arguments) : target;
+            } catch (BreakAndCallException | BreakAndReturnException e) {
+                throw new IllegalStateException("Calls and returns need the call stack of a state machine.", e);
+            }
+        }
+        return n == LOOPBACK ? state : n;
+    }
+
+    /**
+     * Advances many contexts at once. The i-th event with ordinal <code>events[i]</code> is applied to the context with
+     * index <code>contexts[i]</code>, whose current state ordinal is kept in <code>states[contexts[i]]</code> and updated
+     * in place. The events are applied in array order. An event without transition, including the event ordinal
+     * {@link #UNHANDLED}, leaves the state unchanged. Actions and hooks are not run.
+     *
+     * @param contexts the context index of each event.
+     * @param events   the event ordinals.
+     * @param states   the state ordinal of each context, updated in place.
+     * @return the number of events without transition.
+     * @throws IllegalArgumentException if the arrays differ in length or an event ordinal or context index is out of
+     *                                  range. The states are left unchanged then.
+     */
+    public int advance(int[] contexts, int[] events, int[] states) {
+        checkBatch(contexts, events, states);
+
+        int unhandled = 0;
+        for (int i = 0; i < events.length; i++) {
+            int context = contexts[i];
+            int n = step(states[context], events[i]);
+            if (n == UNHANDLED) {
+                unhandled++;
+            } else {
+                states[context] = n;
+            }
+        }
+        return unhandled;
+    }
+
+    /**
+     * Advances many contexts at once like {@link #advance(int[], int[], int[])}, but splits the work across the common
+     * {@link java.util.concurrent.ForkJoinPool}. The contexts are partitioned into ranges of their index, so all events
+     * of one context are applied by the same task and in array order. The arrays are checked before the work is split,
+     * so an invalid batch leaves the states unchanged.
+     *
+     * @param contexts    the context index of each event.
+     * @param events      the event ordinals.
+     * @param states      the state ordinal of each context, updated in place.
+     * @param parallelism the number of partitions.
+     * @return the number of events without transition.
+     * @throws IllegalArgumentException if the arrays differ in length, an event ordinal or context index is out of
+     *                                  range or the parallelism is not positive.
+     */
+    public int advanceParallel(int[] contexts, int[] events, int[] states, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be greater than 0: " + parallelism);
+        }
+        int partitions = Math.min(parallelism, Math.max(states.length, 1));
+        if (partitions == 1) {
+            return advance(contexts, events, states);
+        }
+        checkBatch(contexts, events, states);
+
+        /* Stable counting sort of the event indices by partition. */
+        int[] offsets = new int[partitions + 1];
+        for (int context : contexts) {
+            offsets[partition(context, partitions, states.length) + 1]++;
+        }
+        for (int p = 0; p < partitions; p++) {
+            offsets[p + 1] += offsets[p];
+        }
+        int[] order = new int[events.length];
+        int[] fill = Arrays.copyOf(offsets, partitions);
+        for (int i = 0; i < contexts.length; i++) {
+            order[fill[partition(contexts[i], partitions, states.length)]++] = i;
+        }
+
+        return IntStream.range(0, partitions).parallel().map(p -> {
+            int unhandled = 0;
+            for (int k = offsets[p]; k < offsets[p + 1]; k++) {
+                int i = order[k];
+                int context = contexts[i];
+                int n = step(states[context], events[i]);
+                if (n == UNHANDLED) {
+                    unhandled++;
+                } else {
+                    states[context] = n;
+                }
+            }
+            return unhandled;
+        }).sum();
+    }
+
+    /* Like next(int, int), but returns LOOPBACK for transitions without next state. */
+    int nextOrLoopback(int state, int event) {
+        return next[state * eventCount + event];
+    }
+
+    boolean hasAction(int state, int event) {
+        return actions[state * eventCount + event] != null;
+    }
+
+    static boolean isLoopback(int next) {
+        return next == LOOPBACK;
+    }
+
+    // #################################################################################################################
+    private int stateOrdinal(String id) {
+        for (int i = 0; i < states.length; i++) {
+            if (states[i].getId().equals(id)) {
+                return i;
+            }
+        }
+        throw new NoSuchStateException(id);
+    }
+
+    /* Like next(int, int) for an event ordinal which has been checked already. */
+    private int step(int state, int event) {
+        if (event == UNHANDLED) {
+            return UNHANDLED;
+        }
+        int n = next[state * eventCount + event];
+        return n == LOOPBACK ? state : n;
+    }
+
+    private void checkEvent(int event) {
+        if (event < 0 || event >= eventCount) {
+            throw new IllegalArgumentException("event ordinal out of range: " + event);
+        }
+    }
+
+    private int slot(Object eventId) {
+        int hash = eventId.hashCode();
+        return (hash ^ (hash >>> 16)) & (eventIds.length - 1);
+    }
+
+    private static int partition(int context, int partitions, int contextCount) {
+        return (int) ((long) context * partitions / contextCount);
+    }
+
+    private void checkBatch(int[] contexts, int[] events, int[] states) {
+        if (contexts.length != events.length) {
+            throw new IllegalArgumentException("contexts and events must have the same length: " + contexts.length + " != " + events.length);
+        }
+        for (int i = 0; i < events.length; i++) {
+            if (events[i] != UNHANDLED) {
+                checkEvent(events[i]);
+            }
+            if (contexts[i] < 0 || contexts[i] >= states.length) {
+                throw new IllegalArgumentException("context index out of range: " + contexts[i]);
+            }
+        }
+    }
+
+    private static boolean isTableDriven(Transition transition) {
+        /* Subclasses may override doExecute() and decline events, so only the exact classes qualify. */
+        if (transition.getClass() == NoopTransition.class) {
+            return !Event.WILDCARD_EVENT_ID.equals(((NoopTransition) transition).getEventId());
+        }
+        if (transition.getClass() == LambdaTransition.class) {
+            LambdaTransition lambda = (LambdaTransition) transition;
+            return lambda.getGuard() == null && !Event.WILDCARD_EVENT_ID.equals(lambda.getEventId());
+        }
+        return false;
+    }
+
+    /**
+     * The ordinal of a {@link State} in a {@link StateTable}, kept on the {@link State} itself.
+     *
+     * @param table   the {@link StateTable}.
+     * @param ordinal the ordinal.
+     */
+    record Slot(StateTable table, int ordinal) {
+    }
+}
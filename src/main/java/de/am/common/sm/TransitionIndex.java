@@ -0,0 +1,102 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm;
+
+import de.am.common.sm.event.Event;
+import de.am.common.sm.transition.AbstractTransition;
+import de.am.common.sm.transition.Transition;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link Transition}s of a frozen {@link State} indexed by {@link Event} id.
+ * <p>
+ * For every event id the index holds the {@link Transition}s which may handle it, in the order of their weight, so
+ * dispatching an {@link Event} does not have to try all {@link Transition}s of the {@link State}. Wildcard transitions,
+ * {@link Transition}s not derived from {@link AbstractTransition} and those which override
+ * {@link AbstractTransition#execute(Event)} may handle any event id and are therefore part of every entry. Which
+ * {@link Transition}s are selected by their event id is decided by {@link EventIdIndex#eventIdOf(Transition)}.
+ * </p>
+ * <p>
+ * Transitions with a {@link Class} id handle typed events whose id is that class or a subclass of it. They are only
+ * candidates for typed events, which are looked up per event class through a {@link ClassValue}: the
+ * {@link Transition}s for an event class are collected on its first dispatch and cached.
+ * </p>
+ *
+ * @author Martin Absmeier
+ */
+final class TransitionIndex {
+
+    private final Transition[] transitions;
+    private final Map<Object, Transition[]> byEventId = new HashMap<>();
+    private final Transition[] others;
+    private final ClassValue<Transition[]> byEventClass = new ClassValue<>() {
+        @Override
+        protected Transition[] computeValue(Class<?> eventClass) {
+            return collect(eventClass);
+        }
+    };
+
+    TransitionIndex(Transition[] transitions) {
+        this.transitions = transitions;
+
+        Map<Object, List<Transition>> lists = new LinkedHashMap<>();
+        List<Transition> any = new ArrayList<>();
+        for (Transition transition : transitions) {
+            Object eventId = EventIdIndex.eventIdOf(transition);
+            if (eventId == null) {
+                /* Added to all lists, which keeps them in weight order. */
+                any.add(transition);
+                lists.values().forEach(list -> list.add(transition));
+            } else if (!(eventId instanceof Class)) {
+                lists.computeIfAbsent(eventId, id -> new ArrayList<>(any)).add(transition);
+            }
+        }
+        lists.forEach((eventId, list) -> byEventId.put(eventId, list.toArray(new Transition[0])));
+        this.others = any.toArray(new Transition[0]);
+    }
+
+    /**
+     * Returns the {@link Transition}s which may handle an {@link Event} with the specified id.
+     *
+     * @param eventId the id of the {@link Event}.
+     * @return the {@link Transition}s in weight order.
+     */
+    Transition[] get(Object eventId) {
+        if (eventId instanceof Class) {
+            return byEventClass.get((Class<?>) eventId);
+        }
+        Transition[] candidates = byEventId.get(eventId);
+        return candidates != null ? candidates : others;
+    }
+
+    // #################################################################################################################
+    /* The transitions which may handle a typed event of the class, in weight order. */
+    private Transition[] collect(Class<?> eventClass) {
+        List<Transition> candidates = new ArrayList<>();
+        for (Transition transition : transitions) {
+            Object eventId = EventIdIndex.eventIdOf(transition);
+            if (eventId == null || eventId instanceof Class && ((Class<?>) eventId).isAssignableFrom(eventClass)) {
+                candidates.add(transition);
+            }
+        }
+        return candidates.toArray(new Transition[0]);
+    }
+}
@@ -42,4 +42,20 @@ public @interface State {
      */
     String value() default ROOT;
 
+    /**
+     * Sets the ids of the events deferred by the state. An event which can not be handled by any transition of the
+     * state is parked and processed again after the next state change. The default is no deferred events.
+     *
+     * @return the deferred event ids
+     */
+    String[] defer() default {};
+
+    /**
+     * Sets whether the state is a terminal state. A state context entering a terminal state is finished and released
+     * from its {@link de.am.common.sm.context.StateContextLookup}. The default is <code>false</code>.
+     *
+     * @return <code>true</code> if terminal
+     */
+    boolean terminal() default false;
+
 }
\ No newline at end of file
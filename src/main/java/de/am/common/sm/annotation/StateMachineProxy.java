@@ -0,0 +1,36 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * {@code StateMachineProxy} annotation marks an interface which is implemented by proxies created with
+ * {@link de.am.common.sm.StateMachineProxyBuilder}.
+ * <p>
+ * The annotation has no effect at runtime. It tells {@link de.am.common.sm.processor.NativeImageMetadataProcessor} to
+ * register the interface for dynamic proxies in a GraalVM native image.
+ * </p>
+ *
+ * @author Martin Absmeier
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface StateMachineProxy {
+}
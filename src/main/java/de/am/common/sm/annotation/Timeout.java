@@ -0,0 +1,60 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code Timeout} annotation is used together with {@link State} to fire an event when a state machine stays in a
+ * certain state for too long. The timer is armed whenever the state is entered and cancelled when it is left.
+ *
+ * @author Martin Absmeier
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Timeout {
+
+    /**
+     * Default id of the event fired when the timeout expires.
+     */
+    String TIMEOUT_EVENT_ID = "timeout";
+
+    /**
+     * Sets the time the state machine may stay in the state.
+     *
+     * @return the timeout
+     */
+    long value();
+
+    /**
+     * Sets the unit of the timeout. The default is milliseconds.
+     *
+     * @return the unit
+     */
+    TimeUnit unit() default TimeUnit.MILLISECONDS;
+
+    /**
+     * Sets the id of the event fired when the timeout expires.
+     *
+     * @return the event id
+     */
+    String event() default TIMEOUT_EVENT_ID;
+
+}
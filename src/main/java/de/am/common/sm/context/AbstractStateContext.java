@@ -17,23 +17,39 @@ package de.am.common.sm.context;
 
 import de.am.common.sm.State;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Abstract {@link StateContext} which uses a {@link Map} to store the attributes.
+ * <p>
+ * The attribute {@link Map} is only allocated when the first attribute is stored. Contexts which never carry any
+ * attributes therefore cost no more than the context object itself, which matters for applications keeping large
+ * numbers of mostly idle contexts alive. The data a {@link de.am.common.sm.StateMachine} keeps for the context, like
+ * the timer of its current state, is held in a field of its own, so processing events does not allocate the map. The
+ * generated {@code equals}, {@code hashCode} and {@code toString} read the fields directly and leave out the machine
+ * data.
+ * </p>
  *
  * @author Martin Absmeier
  */
 @Data
+@EqualsAndHashCode(doNotUseGetters = true)
+@ToString(doNotUseGetters = true)
 public abstract class AbstractStateContext implements StateContext {
 
     private static final long serialVersionUID = -9163548435437416302L;
 
     private transient State currentState = null;
 
-    private transient Map<Object, Object> attributes = new HashMap<>();
+    private transient Map<Object, Object> attributes = null;
+
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private transient Object machineData = null;
 
     /**
      * Creates a new state context with no current state and an empty attribute map.
@@ -41,9 +57,21 @@ public abstract class AbstractStateContext implements StateContext {
     protected AbstractStateContext() {
     }
 
+    /**
+     * Returns the attribute {@link Map} of this context, allocating it if no attribute has been stored yet.
+     *
+     * @return the attributes.
+     */
+    public Map<Object, Object> getAttributes() {
+        if (attributes == null) {
+            attributes = new HashMap<>();
+        }
+        return attributes;
+    }
+
     @Override
     public Object getAttribute(Object key) {
-        return getAttributes().get(key);
+        return attributes == null ? null : attributes.get(key);
     }
 
     @Override
@@ -51,4 +79,11 @@ public abstract class AbstractStateContext implements StateContext {
         getAttributes().put(key, value);
     }
 
+    @Override
+    public void reset() {
+        currentState = null;
+        attributes = null;
+        machineData = null;
+    }
+
 }
\ No newline at end of file
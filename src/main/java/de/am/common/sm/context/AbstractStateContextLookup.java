@@ -15,6 +15,8 @@
  */
 package de.am.common.sm.context;
 
+import de.am.common.sm.State;
+
 import static java.util.Objects.isNull;
 
 /**
@@ -24,7 +26,8 @@ import static java.util.Objects.isNull;
  * {@link #lookup(Object[])} scans the arguments in order and asks {@link #supports(Class)} whether each argument can
  * carry a context. For the first supported argument, {@link #lookup(Object)} is used to retrieve an existing context.
  * If no context is present, a new one is created through the configured {@link StateContextFactory} and persisted with
- * {@link #store(Object, StateContext)}.
+ * {@link #store(Object, StateContext)}. A context which has entered a terminal state is replaced by a new one in the
+ * same way, since it can not be removed from the argument it is stored in when the state is entered.
  * </p>
  *
  * @author Martin Absmeier
@@ -54,7 +57,7 @@ public abstract class AbstractStateContextLookup implements StateContextLookup {
             }
             if (supports(eventArg.getClass())) {
                 StateContext sc = lookup(eventArg);
-                if (isNull(sc)) {
+                if (isNull(sc) || isTerminal(sc)) {
                     sc = contextFactory.create();
                     store(eventArg, sc);
                 }
@@ -91,4 +94,10 @@ public abstract class AbstractStateContextLookup implements StateContextLookup {
      */
     protected abstract boolean supports(Class<?> c);
 
+    // #################################################################################################################
+    private static boolean isTerminal(StateContext context) {
+        State state = context.getCurrentState();
+        return state != null && state.isTerminal();
+    }
+
 }
\ No newline at end of file
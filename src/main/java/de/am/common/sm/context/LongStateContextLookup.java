@@ -0,0 +1,217 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.context;
+
+import lombok.Synchronized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+
+/**
+ * {@link StateContextLookup} implementation which keeps its {@link StateContext}s in an open-addressing table keyed by
+ * primitive <code>long</code> values.
+ * <p>
+ * This is meant for applications which identify their clients by numeric ids such as flow or session ids. Keys are
+ * stored unboxed, so looking up an existing {@link StateContext} through {@link #lookup(long)} allocates neither
+ * wrapper objects nor map entries. The key of each {@link StateContext} is also kept by the identity of the context,
+ * so it can be {@link #remove(StateContext) removed} when it enters a terminal state. When used by a proxy,
+ * {@link #lookup(Object[])} uses the first {@link Long} event argument as key.
+ * </p>
+ *
+ * @author Martin Absmeier
+ */
+public class LongStateContextLookup implements StateContextLookup {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final StateContextFactory contextFactory;
+
+    private long[] keys;
+    private StateContext[] values;
+    private int size;
+    private final Map<StateContext, Long> keysByContext = new IdentityHashMap<>();
+
+    /**
+     * Creates a new instance which creates {@link DefaultStateContext} objects for unknown keys.
+     */
+    public LongStateContextLookup() {
+        this(new DefaultStateContextFactory());
+    }
+
+    /**
+     * Creates a new instance which uses the specified {@link StateContextFactory} to create {@link StateContext}
+     * objects for unknown keys.
+     *
+     * @param contextFactory the factory.
+     */
+    public LongStateContextLookup(StateContextFactory contextFactory) {
+        if (isNull(contextFactory)) {
+            throw new IllegalArgumentException("contextFactory");
+        }
+        this.contextFactory = contextFactory;
+        this.keys = new long[DEFAULT_CAPACITY];
+        this.values = new StateContext[DEFAULT_CAPACITY];
+    }
+
+    @Override
+    public StateContext lookup(Object[] eventArgs) {
+        for (Object eventArg : eventArgs) {
+            if (eventArg instanceof Long) {
+                return lookup(((Long) eventArg).longValue());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void remove(StateContext context) {
+        if (removeIfStored(context)) {
+            context.reset();
+            contextFactory.release(context);
+        }
+    }
+
+    /**
+     * Returns the {@link StateContext} stored for the specified key. A new {@link StateContext} is created and stored
+     * if there is none yet.
+     *
+     * @param key the key.
+     * @return the {@link StateContext}.
+     */
+    @Synchronized
+    public StateContext lookup(long key) {
+        int index = indexOf(key);
+        if (values[index] != null) {
+            return values[index];
+        }
+
+        StateContext context = contextFactory.create();
+        keys[index] = key;
+        values[index] = context;
+        keysByContext.put(context, key);
+        if (++size > values.length >>> 1) {
+            resize();
+        }
+        return context;
+    }
+
+    /**
+     * Returns the {@link StateContext} stored for the specified key without creating a new one.
+     *
+     * @param key the key.
+     * @return the {@link StateContext} or <code>null</code> if there is none.
+     */
+    @Synchronized
+    public StateContext get(long key) {
+        return values[indexOf(key)];
+    }
+
+    /**
+     * Removes the {@link StateContext} stored for the specified key.
+     *
+     * @param key the key.
+     * @return the removed {@link StateContext} or <code>null</code> if there was none.
+     */
+    @Synchronized
+    public StateContext remove(long key) {
+        int index = indexOf(key);
+        StateContext removed = values[index];
+        if (removed == null) {
+            return null;
+        }
+
+        /* Shift following entries of the probe sequence back so that no tombstones are needed. */
+        int mask = values.length - 1;
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (values[next] != null) {
+            int home = slot(keys[next], mask);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[hole] = null;
+        size--;
+        keysByContext.remove(removed);
+
+        return removed;
+    }
+
+    @Override
+    @Synchronized
+    public Collection<StateContext> contexts() {
+        List<StateContext> contexts = new ArrayList<>(size);
+        for (StateContext context : values) {
+            if (context != null) {
+                contexts.add(context);
+            }
+        }
+        return contexts;
+    }
+
+    /**
+     * Returns the number of stored {@link StateContext}s.
+     *
+     * @return the number of {@link StateContext}s.
+     */
+    @Synchronized
+    public int size() {
+        return size;
+    }
+
+    // #################################################################################################################
+    @Synchronized
+    private boolean removeIfStored(StateContext context) {
+        Long key = keysByContext.get(context);
+        return key != null && remove(key.longValue()) != null;
+    }
+
+    private int indexOf(long key) {
+        int mask = values.length - 1;
+        int index = slot(key, mask);
+        while (values[index] != null && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        StateContext[] oldValues = values;
+        keys = new long[oldKeys.length << 1];
+        values = new StateContext[oldValues.length << 1];
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -15,6 +15,9 @@
  */
 package de.am.common.sm.context;
 
+import java.util.Collection;
+import java.util.List;
+
 /**
  * {@code  SingletonStateContextLookup} implementation which always returns the same {@link StateContext} instance.
  *
@@ -48,4 +51,9 @@ public class SingletonStateContextLookup implements StateContextLookup {
     public StateContext lookup(Object[] eventArgs) {
         return context;
     }
+
+    @Override
+    public Collection<StateContext> contexts() {
+        return List.of(context);
+    }
 }
\ No newline at end of file
@@ -59,4 +59,34 @@ public interface StateContext extends Serializable {
      */
     void setAttribute(Object key, Object value);
 
+    /**
+     * Returns the data a {@link StateMachine} keeps for this context, like the timer of the current {@link State} or the
+     * call stack. This is only meant for internal use. The default stores it as an attribute.
+     *
+     * @return the data or <code>null</code>.
+     */
+    default Object getMachineData() {
+        return getAttribute(StateMachine.class);
+    }
+
+    /**
+     * Sets the data a {@link StateMachine} keeps for this context. This is only meant for internal use. Don't call it
+     * directly!
+     *
+     * @param data the data.
+     */
+    default void setMachineData(Object data) {
+        setAttribute(StateMachine.class, data);
+    }
+
+    /**
+     * Resets this context so that it can be used for a new client, which starts in the start {@link State} again. Called
+     * before the context is {@link StateContextFactory#release(StateContext) released}. The default only removes the
+     * current {@link State}, implementations storing attributes must remove them as well.
+     */
+    default void reset() {
+        setCurrentState(null);
+        setMachineData(null);
+    }
+
 }
\ No newline at end of file
@@ -29,4 +29,15 @@ public interface StateContextFactory {
 	 */
 	StateContext create();
 
+	/**
+	 * Called by a {@link StateContextLookup} when a {@link StateContext} has been removed because it reached a terminal
+	 * state. The {@link StateContext} has been {@link StateContext#reset() reset} before, and the terminal state has no
+	 * timeout, call stack or deferred events left. Implementations may recycle the {@link StateContext}, provided no
+	 * other references to it are kept. The default does nothing.
+	 *
+	 * @param context the removed {@link StateContext}.
+	 */
+	default void release(StateContext context) {
+	}
+
 }
\ No newline at end of file
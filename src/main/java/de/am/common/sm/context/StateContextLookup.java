@@ -15,8 +15,11 @@
  */
 package de.am.common.sm.context;
 
+import de.am.common.sm.StateMachine;
 import de.am.common.sm.event.Event;
 
+import java.util.Collection;
+
 /**
  * Lookups a {@link StateContext} from a collection of event arguments.
  *
@@ -34,4 +37,30 @@ public interface StateContextLookup {
      */
     StateContext lookup(Object[] eventArgs);
 
+    /**
+     * Removes the specified {@link StateContext}, so the next lookup for the same arguments creates a new one. Called by
+     * the {@link StateMachine}s this lookup is {@link StateMachine#addStateContextLookup(StateContextLookup) registered}
+     * with when the {@link StateContext} has entered a terminal state, once the events queued for it have been
+     * processed. The call is made under the lock of the {@link StateMachine}, or on the loop thread of the
+     * {@link StateContext} if the machine is processed by an event loop group. Implementations should
+     * {@link StateContext#reset() reset} the {@link StateContext} before they
+     * {@link StateContextFactory#release(StateContext) release} it. The default does nothing.
+     *
+     * @param context the {@link StateContext} to remove.
+     */
+    default void remove(StateContext context) {
+    }
+
+    /**
+     * Returns all {@link StateContext}s of this {@link StateContextLookup}, e.g. to broadcast an {@link Event} to them.
+     * The default throws an {@link UnsupportedOperationException} since many lookups store their contexts in the event
+     * arguments and can not enumerate them.
+     *
+     * @return a snapshot of the {@link StateContext}s.
+     * @throws UnsupportedOperationException if the contexts can not be enumerated.
+     */
+    default Collection<StateContext> contexts() {
+        throw new UnsupportedOperationException(getClass().getName() + " can not enumerate its state contexts.");
+    }
+
 }
\ No newline at end of file
@@ -36,4 +36,9 @@ public class DefaultEventFactory implements EventFactory {
     public Event create(StateContext context, Method method, Object[] arguments) {
         return new Event(method.getName(), context, arguments);
     }
+
+    @Override
+    public Object getEventId(Method method, Object[] arguments) {
+        return method.getName();
+    }
 }
\ No newline at end of file
@@ -38,6 +38,8 @@ public class Event implements Serializable {
      */
     public static final String WILDCARD_EVENT_ID = "*";
 
+    private static final Object[] EMPTY_ARGUMENTS = new Object[0];
+
     /**
      * The event identifier, typically derived from a proxy method name.
      */
@@ -63,7 +65,7 @@ public class Event implements Serializable {
      * @param context the {@link StateContext} the event was triggered for.
      */
     public Event(Object id, StateContext context) {
-        this(id, context, new Object[0]);
+        this(id, context, EMPTY_ARGUMENTS);
     }
 
     /**
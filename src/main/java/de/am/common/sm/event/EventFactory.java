@@ -37,4 +37,18 @@ public interface EventFactory {
      */
     Event create(StateContext context, Method method, Object[] arguments);
 
+    /**
+     * Returns the id of the {@link Event} which {@link #create(StateContext, Method, Object[])} would create for the
+     * specified method and method arguments, without creating it. This allows {@link StateMachineProxyBuilder} to drop
+     * events no state handles before a {@link StateContext} is looked up. The default returns <code>null</code>, meaning
+     * the id is not known in advance.
+     *
+     * @param method the method being invoked.
+     * @param arguments the method arguments.
+     * @return the event id or <code>null</code> if unknown.
+     */
+    default Object getEventId(Method method, Object[] arguments) {
+        return null;
+    }
+
 }
\ No newline at end of file
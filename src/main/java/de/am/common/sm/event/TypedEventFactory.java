@@ -0,0 +1,66 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.event;
+
+import de.am.common.sm.context.StateContext;
+import de.am.common.sm.transition.TypedTransition;
+
+import java.lang.reflect.Method;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@link EventFactory} for typed messages, e.g. records. If the invoked method takes exactly one argument, the
+ * {@link Class} of that argument is used as event id, so the {@link Event} can be handled by a {@link TypedTransition}.
+ * Otherwise the method's name is used like {@link DefaultEventFactory} does.
+ *
+ * @author Martin Absmeier
+ */
+public class TypedEventFactory implements EventFactory {
+
+    /**
+     * Creates a new event factory that uses the class of the single method argument as the event id.
+     */
+    public TypedEventFactory() {
+    }
+
+    /**
+     * Creates a typed {@link Event} for the specified message, which can be passed directly to
+     * {@link de.am.common.sm.StateMachine#handle(Event)}.
+     *
+     * @param context the {@link StateContext}.
+     * @param message the message.
+     * @return the {@link Event}.
+     */
+    public static Event of(StateContext context, Object message) {
+        requireNonNull(message, "NULL is not permitted as value for 'message' parameter.");
+
+        return new Event(message.getClass(), context, new Object[]{message});
+    }
+
+    @Override
+    public Event create(StateContext context, Method method, Object[] arguments) {
+        return new Event(getEventId(method, arguments), context, arguments);
+    }
+
+    @Override
+    public Object getEventId(Method method, Object[] arguments) {
+        if (arguments.length == 1 && arguments[0] != null) {
+            return arguments[0].getClass();
+        }
+        return method.getName();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.processor;
+
+import de.am.common.sm.annotation.OnEntry;
+import de.am.common.sm.annotation.OnExit;
+import de.am.common.sm.annotation.State;
+import de.am.common.sm.annotation.StateMachineProxy;
+import de.am.common.sm.annotation.Timeout;
+import de.am.common.sm.annotation.Transition;
+import de.am.common.sm.annotation.TransitionAnnotation;
+import de.am.common.sm.annotation.Transitions;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Annotation processor which generates GraalVM native image reachability metadata for state machine handlers.
+ * <p>
+ * {@link de.am.common.sm.StateMachineFactory} reads {@link State} fields and invokes annotated methods by reflection,
+ * and {@link de.am.common.sm.StateMachineProxyBuilder} creates dynamic proxies. Neither works in a native image unless
+ * the classes are registered. This processor writes a <code>reflect-config.json</code> with every class declaring
+ * state machine annotations and the annotation types themselves, and a <code>proxy-config.json</code> with every
+ * interface annotated with {@link StateMachineProxy}. Custom transition annotations are recognized by their
+ * {@link TransitionAnnotation} meta-annotation.
+ * </p>
+ * <p>
+ * The processor is registered as service and runs whenever this library is on the annotation processor path. The files
+ * are written to <code>META-INF/native-image/de.am.common.sm/handlers</code> in the class output, which can be changed
+ * with the processor option <code>-A{@value #OPTION_DIRECTORY}=...</code>.
+ * </p>
+ *
+ * @author Martin Absmeier
+ */
+public class NativeImageMetadataProcessor extends AbstractProcessor {
+
+    /**
+     * The processor option for the directory the metadata files are written to.
+     */
+    public static final String OPTION_DIRECTORY = "common.sm.nativeImageDirectory";
+
+    /**
+     * The default directory the metadata files are written to.
+     */
+    public static final String DEFAULT_DIRECTORY = "META-INF/native-image/de.am.common.sm/handlers";
+
+    private static final Set<String> ANNOTATIONS = Set.of(State.class.getName(), Timeout.class.getName(),
+        Transition.class.getName(), Transitions.class.getName(), OnEntry.class.getName(), OnExit.class.getName());
+
+    private final Set<String> handlers = new TreeSet<>();
+    private final Set<String> annotationTypes = new TreeSet<>();
+    private final Set<String> proxyInterfaces = new TreeSet<>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        /* Custom transition annotations are only known by their meta-annotation. */
+        return Set.of("*");
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Set.of(OPTION_DIRECTORY);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            String name = annotation.getQualifiedName().toString();
+            if (StateMachineProxy.class.getName().equals(name)) {
+                for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                    proxyInterfaces.add(binaryName((TypeElement) element));
+                }
+            } else if (ANNOTATIONS.contains(name) || isTransitionAnnotation(annotation) || isTransitionsAnnotation(annotation)) {
+                annotationTypes.add(binaryName(annotation));
+                for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                    handlers.add(binaryName((TypeElement) element.getEnclosingElement()));
+                }
+            }
+        }
+
+        if (roundEnv.processingOver() && !(handlers.isEmpty() && proxyInterfaces.isEmpty())) {
+            writeMetadata();
+        }
+        /* Other processors, e.g. Lombok, must still see all annotations. */
+        return false;
+    }
+
+    // #################################################################################################################
+    private void writeMetadata() {
+        String directory = processingEnv.getOptions().getOrDefault(OPTION_DIRECTORY, DEFAULT_DIRECTORY);
+        try {
+            StringBuilder reflect = new StringBuilder("[\n");
+            appendEntries(reflect, handlers, "\"allDeclaredFields\": true, \"allDeclaredMethods\": true, \"allDeclaredConstructors\": true");
+            if (!handlers.isEmpty() && !annotationTypes.isEmpty()) {
+                reflect.append(",\n");
+            }
+            appendEntries(reflect, annotationTypes, "\"allPublicMethods\": true");
+            write(directory + "/reflect-config.json", reflect.append("\n]\n"));
+
+            StringBuilder proxy = new StringBuilder("[\n");
+            for (Iterator<String> it = proxyInterfaces.iterator(); it.hasNext(); ) {
+                proxy.append("  {\"interfaces\": [\"").append(it.next()).append("\"]}").append(it.hasNext() ? ",\n" : "");
+            }
+            write(directory + "/proxy-config.json", proxy.append("\n]\n"));
+        } catch (IOException ioe) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write native image metadata: " + ioe.getMessage());
+        }
+    }
+
+    private void write(String path, CharSequence content) throws IOException {
+        FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", path);
+        try (Writer writer = file.openWriter()) {
+            writer.append(content);
+        }
+    }
+
+    private static void appendEntries(StringBuilder sb, Set<String> names, String flags) {
+        for (Iterator<String> it = names.iterator(); it.hasNext(); ) {
+            sb.append("  {\"name\": \"").append(it.next()).append("\", ").append(flags).append('}').append(it.hasNext() ? ",\n" : "");
+        }
+    }
+
+    private String binaryName(TypeElement type) {
+        return processingEnv.getElementUtils().getBinaryName(type).toString();
+    }
+
+    private static boolean isTransitionAnnotation(TypeElement annotation) {
+        return annotation.getAnnotation(TransitionAnnotation.class) != null;
+    }
+
+    /* A container annotation whose value is an array of a transition annotation. */
+    private static boolean isTransitionsAnnotation(TypeElement annotation) {
+        for (Element element : annotation.getEnclosedElements()) {
+            if (element instanceof ExecutableElement && element.getSimpleName().contentEquals("value")) {
+                TypeMirror type = ((ExecutableElement) element).getReturnType();
+                if (type instanceof ArrayType) {
+                    TypeMirror component = ((ArrayType) type).getComponentType();
+                    return component instanceof DeclaredType
+                        && isTransitionAnnotation((TypeElement) ((DeclaredType) component).asElement());
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.timer;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Handle of a {@link TimerTask} scheduled on a {@link TimingWheel}. Cancelling a handle is an O(1) operation.
+ *
+ * @author Martin Absmeier
+ */
+public final class TimerHandle {
+
+    private static final int ST_PENDING = 0;
+    private static final int ST_CANCELLED = 1;
+    private static final int ST_EXPIRED = 2;
+
+    private static final AtomicIntegerFieldUpdater<TimerHandle> STATE =
+        AtomicIntegerFieldUpdater.newUpdater(TimerHandle.class, "state");
+
+    private final TimingWheel wheel;
+    private final TimerTask task;
+    /* In nanoseconds, 0 for a one-shot task. */
+    private final long period;
+    /* Orders tasks with the same deadline by the time they have been scheduled. */
+    private final long sequence;
+
+    /* Relative to the start time of the wheel, in nanoseconds. */
+    long deadline;
+    long remainingRounds;
+
+    /* Bucket list links, only accessed by the worker thread. */
+    TimerHandle next;
+    TimerHandle prev;
+    TimingWheel.Bucket bucket;
+
+    private volatile int state = ST_PENDING;
+
+    TimerHandle(TimingWheel wheel, TimerTask task, long deadline, long period, long sequence) {
+        this.wheel = wheel;
+        this.task = task;
+        this.deadline = deadline;
+        this.period = period;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Cancels the task. Has no effect if the task has already been executed or cancelled.
+     *
+     * @return <code>true</code> if the task has been cancelled by this call.
+     */
+    public boolean cancel() {
+        if (!STATE.compareAndSet(this, ST_PENDING, ST_CANCELLED)) {
+            return false;
+        }
+        wheel.cancelled(this);
+        return true;
+    }
+
+    /**
+     * Returns whether the task has been cancelled.
+     *
+     * @return <code>true</code> if cancelled.
+     */
+    public boolean isCancelled() {
+        return state == ST_CANCELLED;
+    }
+
+    /**
+     * Returns whether the task is executed periodically.
+     *
+     * @return <code>true</code> if periodic.
+     */
+    public boolean isPeriodic() {
+        return period > 0;
+    }
+
+    /**
+     * Returns whether the task has been executed. A periodic task never expires, it runs until it is cancelled.
+     *
+     * @return <code>true</code> if expired.
+     */
+    public boolean isExpired() {
+        return state == ST_EXPIRED;
+    }
+
+    boolean expire() {
+        return STATE.compareAndSet(this, ST_PENDING, ST_EXPIRED);
+    }
+
+    TimerTask getTask() {
+        return task;
+    }
+
+    long getPeriod() {
+        return period;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.timer;
+
+/**
+ * A task which is executed by a {@link TimingWheel} once its delay has expired.
+ *
+ * @author Martin Absmeier
+ */
+@FunctionalInterface
+public interface TimerTask {
+
+    /**
+     * Executes this task. Called on the worker thread of the {@link TimingWheel}, so implementations should return
+     * quickly.
+     *
+     * @param handle the {@link TimerHandle} returned when this task was scheduled.
+     */
+    void run(TimerHandle handle);
+
+}
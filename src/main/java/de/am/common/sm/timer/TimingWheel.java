@@ -0,0 +1,322 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.timer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Hashed timing wheel which executes {@link TimerTask}s after a delay.
+ * <p>
+ * All tasks share a single worker thread and a ring of buckets. Scheduling and cancelling a task are O(1) operations
+ * which only enqueue the task; the worker thread moves new tasks into their bucket and executes the tasks of one bucket
+ * per tick. Tasks whose delay exceeds one revolution of the wheel are kept in their bucket with a remaining round
+ * count, so the number of pending tasks is only bounded by memory. The timing precision is one tick. The tasks
+ * expiring in the same tick are executed in the order of their deadlines, tasks with the same deadline in the order
+ * they have been scheduled.
+ * </p>
+ * <p>
+ * This makes it possible to keep a timer per {@link de.am.common.sm.context.StateContext} for millions of contexts,
+ * which would not scale with one scheduled executor task per context.
+ * </p>
+ *
+ * @author Martin Absmeier
+ */
+public class TimingWheel {
+
+    private static final Logger LOGGER = LogManager.getLogger(TimingWheel.class);
+
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private static final Comparator<TimerHandle> EXPIRY_ORDER =
+        Comparator.<TimerHandle>comparingLong(h -> h.deadline).thenComparingLong(TimerHandle::getSequence);
+
+    private final long tickDuration;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime;
+    private final Queue<TimerHandle> pendingTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<TimerHandle> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    /* The tasks expiring in the current tick, only used by the worker thread. */
+    private final List<TimerHandle> expired = new ArrayList<>();
+    private final Thread worker;
+    private volatile boolean running = true;
+    private long tick;
+
+    /**
+     * Creates a new timing wheel and starts its worker thread.
+     *
+     * @param tickDuration  the duration of one tick.
+     * @param unit          the unit of the tick duration.
+     * @param ticksPerWheel the number of buckets, rounded up to the next power of two.
+     */
+    public TimingWheel(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        requireNonNull(unit, "NULL is not permitted as value for 'unit' parameter.");
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+            throw new IllegalArgumentException("ticksPerWheel must be between 1 and 2^30: " + ticksPerWheel);
+        }
+
+        int size = Integer.highestOneBit(ticksPerWheel);
+        size = size < ticksPerWheel ? size << 1 : size;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.tickDuration = unit.toNanos(tickDuration);
+        this.startTime = System.nanoTime();
+
+        this.worker = new Thread(this::run, "common-sm-timer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Returns the timing wheel shared by all {@link de.am.common.sm.StateMachine}s. It is created on first use with a
+     * tick duration of 10 milliseconds.
+     *
+     * @return the shared timing wheel.
+     */
+    public static TimingWheel getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Schedules the specified task for execution after the specified delay.
+     *
+     * @param task  the task to execute.
+     * @param delay the delay.
+     * @param unit  the unit of the delay.
+     * @return the {@link TimerHandle} which can be used to cancel the task.
+     * @throws IllegalStateException if this timing wheel has been stopped.
+     */
+    public TimerHandle schedule(TimerTask task, long delay, TimeUnit unit) {
+        requireNonNull(task, "NULL is not permitted as value for 'task' parameter.");
+        requireNonNull(unit, "NULL is not permitted as value for 'unit' parameter.");
+        if (!running) {
+            throw new IllegalStateException("The timing wheel has been stopped.");
+        }
+
+        return schedule(task, unit.toNanos(Math.max(delay, 0)), 0);
+    }
+
+    /**
+     * Schedules the specified task for periodic execution. The task is first executed after the initial delay and then
+     * repeatedly with the specified period until its {@link TimerHandle} is cancelled. The period is measured from the
+     * deadline of the previous execution, so a late execution does not shift subsequent ones.
+     *
+     * @param task         the task to execute.
+     * @param initialDelay the delay of the first execution.
+     * @param period       the period between successive executions.
+     * @param unit         the unit of the delay and period.
+     * @return the {@link TimerHandle} which can be used to cancel the task.
+     * @throws IllegalStateException if this timing wheel has been stopped.
+     */
+    public TimerHandle scheduleAtFixedRate(TimerTask task, long initialDelay, long period, TimeUnit unit) {
+        requireNonNull(task, "NULL is not permitted as value for 'task' parameter.");
+        requireNonNull(unit, "NULL is not permitted as value for 'unit' parameter.");
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be greater than 0: " + period);
+        }
+        if (!running) {
+            throw new IllegalStateException("The timing wheel has been stopped.");
+        }
+
+        return schedule(task, unit.toNanos(Math.max(initialDelay, 0)), unit.toNanos(period));
+    }
+
+    /**
+     * Stops the worker thread. Pending tasks are not executed anymore.
+     */
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    void cancelled(TimerHandle handle) {
+        cancelledTimeouts.add(handle);
+    }
+
+    // #################################################################################################################
+    private TimerHandle schedule(TimerTask task, long delayNanos, long periodNanos) {
+        long deadline = System.nanoTime() - startTime + delayNanos;
+        TimerHandle handle = new TimerHandle(this, task, deadline, periodNanos, sequence.getAndIncrement());
+        pendingTimeouts.add(handle);
+        return handle;
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = waitForNextTick();
+            if (deadline < 0) {
+                break;
+            }
+
+            removeCancelled();
+            transferPending();
+            wheel[(int) (tick & mask)].expire(deadline, expired);
+            if (expired.size() > 1) {
+                expired.sort(EXPIRY_ORDER);
+            }
+            for (TimerHandle handle : expired) {
+                execute(handle);
+            }
+            expired.clear();
+            tick++;
+        }
+    }
+
+    private long waitForNextTick() {
+        long deadline = tickDuration * (tick + 1);
+        while (true) {
+            long currentTime = System.nanoTime() - startTime;
+            long sleepMillis = (deadline - currentTime + 999_999) / 1_000_000;
+            if (sleepMillis <= 0) {
+                return currentTime;
+            }
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException ie) {
+                if (!running) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private void removeCancelled() {
+        TimerHandle handle;
+        while ((handle = cancelledTimeouts.poll()) != null) {
+            if (handle.bucket != null) {
+                handle.bucket.remove(handle);
+            }
+        }
+    }
+
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            TimerHandle handle = pendingTimeouts.poll();
+            if (handle == null) {
+                break;
+            }
+            if (handle.isCancelled()) {
+                continue;
+            }
+
+            long calculated = handle.deadline / tickDuration;
+            handle.remainingRounds = (calculated - tick) / wheel.length;
+            long ticks = Math.max(calculated, tick);
+            wheel[(int) (ticks & mask)].add(handle);
+        }
+    }
+
+    private void execute(TimerHandle handle) {
+        if (handle.isPeriodic()) {
+            if (handle.isCancelled()) {
+                return;
+            }
+            runTask(handle);
+            /* Re-insert the same handle for the next period, unless it has been cancelled meanwhile. */
+            handle.deadline += handle.getPeriod();
+            if (!handle.isCancelled()) {
+                pendingTimeouts.add(handle);
+            }
+        } else if (handle.expire()) {
+            runTask(handle);
+        }
+    }
+
+    private static void runTask(TimerHandle handle) {
+        try {
+            handle.getTask().run(handle);
+        } catch (Throwable t) {
+            LOGGER.warn("Timer task {} raised an exception.", handle.getTask(), t);
+        }
+    }
+
+    /**
+     * Doubly linked list of the {@link TimerHandle}s hashed to one slot of the wheel. Only used by the worker thread.
+     */
+    final class Bucket {
+
+        private TimerHandle head;
+        private TimerHandle tail;
+
+        void add(TimerHandle handle) {
+            handle.bucket = this;
+            if (head == null) {
+                head = tail = handle;
+            } else {
+                tail.next = handle;
+                handle.prev = tail;
+                tail = handle;
+            }
+        }
+
+        void remove(TimerHandle handle) {
+            TimerHandle next = handle.next;
+            if (handle.prev != null) {
+                handle.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = handle.prev;
+            }
+            if (handle == head) {
+                head = next;
+            }
+            if (handle == tail) {
+                tail = handle.prev;
+            }
+            handle.prev = null;
+            handle.next = null;
+            handle.bucket = null;
+        }
+
+        void expire(long deadline, List<TimerHandle> expired) {
+            TimerHandle handle = head;
+            while (handle != null) {
+                TimerHandle next = handle.next;
+                if (handle.isCancelled()) {
+                    remove(handle);
+                } else if (handle.remainingRounds <= 0 && handle.deadline <= deadline) {
+                    remove(handle);
+                    expired.add(handle);
+                } else {
+                    handle.remainingRounds--;
+                }
+                handle = next;
+            }
+        }
+    }
+
+    private static final class DefaultHolder {
+        private static final TimingWheel INSTANCE = new TimingWheel(10, TimeUnit.MILLISECONDS, 512);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.transition;
+
+import de.am.common.sm.context.StateContext;
+import lombok.Getter;
+
+import java.lang.reflect.Method;
+
+/**
+ * {@link MethodSelfTransition} which invokes its hook {@link Method} on a handler object bound to the current
+ * {@link StateContext}. The handler is looked up the same way as by {@link ContextMethodTransition}.
+ *
+ * @author Martin Absmeier
+ */
+public class ContextMethodSelfTransition extends MethodSelfTransition {
+
+    /**
+     * The type of the handler which is bound to the {@link StateContext}.
+     */
+    @Getter
+    private final Class<?> targetType;
+
+    /**
+     * Creates a new self transition that invokes the specified method on the handler bound to the state context.
+     *
+     * @param method     the hook method to invoke.
+     * @param targetType the type of the handler bound to the {@link StateContext}.
+     */
+    public ContextMethodSelfTransition(Method method, Class<?> targetType) {
+        super(method, null);
+        this.targetType = targetType;
+    }
+
+    /**
+     * Returns the handler bound to the specified {@link StateContext}.
+     *
+     * @param stateContext the active state context.
+     * @return the handler.
+     * @throws IllegalStateException if no handler of the target type is bound to the {@link StateContext}.
+     */
+    @Override
+    protected Object getTarget(StateContext stateContext) {
+        Object target = stateContext.getAttribute(targetType);
+        if (!targetType.isInstance(target)) {
+            throw new IllegalStateException("No handler of type " + targetType.getName() + " bound to state context " + stateContext);
+        }
+        return target;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.transition;
+
+import de.am.common.sm.State;
+import de.am.common.sm.StateMachineFactory;
+import de.am.common.sm.context.StateContext;
+import de.am.common.sm.event.Event;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.lang.reflect.Method;
+
+import static java.lang.String.valueOf;
+
+/**
+ * {@link MethodTransition} which invokes its target {@link Method} on a handler object bound to the current
+ * {@link StateContext} instead of on a fixed target object.
+ * <p>
+ * The handler is looked up with {@link StateContext#getAttribute(Object)} using the handler type as key, so every
+ * context can carry its own handler instance while all contexts share the same {@link State}s and
+ * {@link Transition}s:
+ * </p>
+ * <pre>
+ * context.setAttribute(MyHandler.class, new MyHandler());
+ * </pre>
+ * <p>
+ * {@link StateMachineFactory} creates these transitions for handler classes passed as
+ * {@link de.am.common.sm.ContextHandler}.
+ * </p>
+ *
+ * @author Martin Absmeier
+ */
+@EqualsAndHashCode(callSuper = true)
+public class ContextMethodTransition extends MethodTransition {
+
+    /**
+     * The type of the handler which is bound to the {@link StateContext}.
+     */
+    @Getter
+    private final Class<?> targetType;
+
+    /**
+     * Creates a new instance which will loopback to the same {@link State} for the specified {@link Event} id.
+     *
+     * @param eventId    the {@link Event} id.
+     * @param method     the target method.
+     * @param targetType the type of the handler bound to the {@link StateContext}.
+     */
+    public ContextMethodTransition(Object eventId, Method method, Class<?> targetType) {
+        this(eventId, null, method, targetType);
+    }
+
+    /**
+     * Creates a new instance with the specified {@link State} as next state and for the specified {@link Event} id.
+     *
+     * @param eventId    the {@link Event} id.
+     * @param nextState  the next {@link State}.
+     * @param method     the target method.
+     * @param targetType the type of the handler bound to the {@link StateContext}.
+     */
+    public ContextMethodTransition(Object eventId, State nextState, Method method, Class<?> targetType) {
+        super(eventId, nextState, method, null);
+        this.targetType = targetType;
+    }
+
+    /**
+     * Returns the handler bound to the specified {@link StateContext}.
+     *
+     * @param context the {@link StateContext} of the current {@link Event}.
+     * @return the handler.
+     * @throws IllegalStateException if no handler of the target type is bound to the {@link StateContext}.
+     */
+    @Override
+    protected Object getTarget(StateContext context) {
+        Object target = context.getAttribute(targetType);
+        if (!targetType.isInstance(target)) {
+            throw new IllegalStateException("No handler of type " + targetType.getName() + " bound to state context " + context);
+        }
+        return target;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString().concat(" | targetType: ").concat(valueOf(targetType));
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.transition;
+
+import de.am.common.sm.State;
+import de.am.common.sm.context.StateContext;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.util.function.BiConsumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@link SelfTransition} which executes a lambda when a {@link State} is entered or left.
+ *
+ * @author Martin Absmeier
+ */
+@EqualsAndHashCode(callSuper = false)
+public class LambdaSelfTransition extends AbstractSelfTransition {
+
+    @Getter
+    private final BiConsumer<StateContext, State> action;
+
+    /**
+     * Creates a new instance which executes the specified action.
+     *
+     * @param action the action to execute.
+     */
+    public LambdaSelfTransition(BiConsumer<StateContext, State> action) {
+        requireNonNull(action, "NULL is not permitted as value for 'action' parameter.");
+
+        this.action = action;
+    }
+
+    @Override
+    protected boolean doExecute(StateContext stateContext, State state) {
+        action.accept(stateContext, state);
+        return true;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.transition;
+
+import de.am.common.sm.State;
+import de.am.common.sm.context.StateContext;
+import de.am.common.sm.event.Event;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@link Transition} which executes a lambda, optionally guarded by a predicate. Both receive the {@link StateContext}
+ * and the arguments of the current {@link Event}. Unlike {@link MethodTransition} no reflection is involved, so the
+ * code of the lambda can be inlined by the JIT.
+ *
+ * @author Martin Absmeier
+ */
+@EqualsAndHashCode(callSuper = true)
+public class LambdaTransition extends AbstractTransition {
+
+    @Getter
+    private final BiPredicate<StateContext, Object[]> guard;
+    @Getter
+    private final BiConsumer<StateContext, Object[]> action;
+
+    /**
+     * Creates a new instance which will loopback to the same {@link State} for the specified {@link Event} id.
+     *
+     * @param eventId the {@link Event} id.
+     * @param action  the action to execute.
+     */
+    public LambdaTransition(Object eventId, BiConsumer<StateContext, Object[]> action) {
+        this(eventId, null, null, action);
+    }
+
+    /**
+     * Creates a new instance with the specified {@link State} as next state and for the specified {@link Event} id.
+     *
+     * @param eventId   the {@link Event} id.
+     * @param nextState the next {@link State}.
+     * @param action    the action to execute.
+     */
+    public LambdaTransition(Object eventId, State nextState, BiConsumer<StateContext, Object[]> action) {
+        this(eventId, nextState, null, action);
+    }
+
+    /**
+     * Creates a new instance with the specified {@link State} as next state and for the specified {@link Event} id. The
+     * {@link Transition} is only executed if the guard accepts the {@link Event}, otherwise the next {@link Transition}
+     * is tried.
+     *
+     * @param eventId   the {@link Event} id.
+     * @param nextState the next {@link State} or <code>null</code> to loopback to the same {@link State}.
+     * @param guard     the guard or <code>null</code> to accept any {@link Event}.
+     * @param action    the action to execute.
+     */
+    public LambdaTransition(Object eventId, State nextState, BiPredicate<StateContext, Object[]> guard,
+                            BiConsumer<StateContext, Object[]> action) {
+        super(eventId, nextState);
+        requireNonNull(action, "NULL is not permitted as value for 'action' parameter.");
+
+        this.guard = guard;
+        this.action = action;
+    }
+
+    @Override
+    protected boolean doExecute(Event event) {
+        StateContext context = event.getContext();
+        Object[] arguments = event.getArguments();
+        if (guard != null && !guard.test(context, arguments)) {
+            return false;
+        }
+
+        action.accept(context, arguments);
+        return true;
+    }
+}
@@ -46,6 +46,7 @@ public class MethodSelfTransition extends AbstractSelfTransition {
     @Getter
     private final Method method;
     private final Object target;
+    private final Class<?>[] parameterTypes;
     private static final Object[] EMPTY_ARGUMENTS = new Object[0];
 
     /**
@@ -57,6 +58,7 @@ public class MethodSelfTransition extends AbstractSelfTransition {
     public MethodSelfTransition(Method method, Object target) {
         this.method = method;
         this.target = target;
+        this.parameterTypes = method.getParameterTypes();
     }
 
     /**
@@ -78,6 +80,7 @@ public class MethodSelfTransition extends AbstractSelfTransition {
         }
 
         this.method = result;
+        this.parameterTypes = result.getParameterTypes();
     }
 
     /**
@@ -90,10 +93,10 @@ public class MethodSelfTransition extends AbstractSelfTransition {
      */
     @Override
     public boolean doExecute(StateContext stateContext, State state) {
-        Class<?>[] types = method.getParameterTypes();
+        Class<?>[] types = parameterTypes;
 
         if (types.length == 0) {
-            invokeMethod(EMPTY_ARGUMENTS);
+            invokeMethod(getTarget(stateContext), EMPTY_ARGUMENTS);
             return true;
         }
 
@@ -115,16 +118,27 @@ public class MethodSelfTransition extends AbstractSelfTransition {
             return false;
         }
 
-        invokeMethod(args);
+        invokeMethod(getTarget(stateContext), args);
 
         return true;
     }
 
+    /**
+     * Returns the object the hook method is invoked on for the specified {@link StateContext}. The default is the target
+     * object passed to the constructor.
+     *
+     * @param stateContext the active state context.
+     * @return the target object.
+     */
+    protected Object getTarget(StateContext stateContext) {
+        return target;
+    }
+
     private boolean matchesParameter(Class<?> paramType, Object argument) {
         return argument != null && paramType.isAssignableFrom(argument.getClass());
     }
 
-    private void invokeMethod(Object[] arguments) {
+    private void invokeMethod(Object target, Object[] arguments) {
         try {
             if (log.isDebugEnabled()) {
                 log.debug("Executing method {} with arguments {}", method, asList(arguments));
@@ -56,6 +56,8 @@ public class MethodTransition extends AbstractTransition {
 
     private final Method method;
     private final Object target;
+    @EqualsAndHashCode.Exclude
+    private final Class<?>[] parameterTypes;
 
     /**
      * Creates a new instance which will loopback to the same {@link State} for the specified {@link Event} id.
@@ -93,6 +95,7 @@ public class MethodTransition extends AbstractTransition {
         super(eventId, nextState);
         this.method = method;
         this.target = target;
+        this.parameterTypes = method.getParameterTypes();
     }
 
     /**
@@ -135,6 +138,7 @@ public class MethodTransition extends AbstractTransition {
         }
 
         this.method = result;
+        this.parameterTypes = result.getParameterTypes();
     }
 
     /**
@@ -158,10 +162,10 @@ public class MethodTransition extends AbstractTransition {
      * @return {@code true} if the method was invoked, otherwise {@code false}.
      */
     public boolean doExecute(Event event) {
-        Class<?>[] types = method.getParameterTypes();
+        Class<?>[] types = parameterTypes;
 
         if (types.length == 0) {
-            invokeMethod(EMPTY_ARGUMENTS);
+            invokeMethod(getTarget(event.getContext()), EMPTY_ARGUMENTS);
             return true;
         }
 
@@ -182,7 +186,7 @@ public class MethodTransition extends AbstractTransition {
             return false;
         }
 
-        invokeMethod(args);
+        invokeMethod(getTarget(event.getContext()), args);
 
         return true;
     }
@@ -205,7 +209,18 @@ public class MethodTransition extends AbstractTransition {
         return target;
     }
 
-    private void invokeMethod(Object[] arguments) {
+    /**
+     * Returns the object the target {@link Method} is invoked on while processing an {@link Event} for the specified
+     * {@link StateContext}. The default is the target object passed to the constructor.
+     *
+     * @param context the {@link StateContext} of the current {@link Event}.
+     * @return the target object.
+     */
+    protected Object getTarget(StateContext context) {
+        return target;
+    }
+
+    private void invokeMethod(Object target, Object[] arguments) {
         try {
             if (log.isDebugEnabled()) {
                 log.debug("Executing method {} with arguments {}.", method, asList(arguments));
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.transition;
+
+import de.am.common.sm.State;
+import de.am.common.sm.context.StateContext;
+import de.am.common.sm.event.Event;
+import de.am.common.sm.event.TypedEventFactory;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@link Transition} for typed events, e.g. records or the permitted subclasses of a sealed interface. The id of such
+ * an {@link Event} is the {@link Class} of the message and its only argument is the message itself, as created by
+ * {@link TypedEventFactory}.
+ * <p>
+ * The {@link Transition} handles every {@link Event} whose id is the {@link Class} it has been created for or a
+ * subtype of it, so a single {@link Transition} can handle all messages of a sealed hierarchy. The message is passed
+ * to the action with its static type, without any reflection.
+ * </p>
+ *
+ * @param <E> the type of the message.
+ * @author Martin Absmeier
+ */
+@EqualsAndHashCode(callSuper = true)
+public class TypedTransition<E> extends AbstractTransition {
+
+    @Getter
+    private final Class<E> type;
+    @Getter
+    private final BiPredicate<StateContext, ? super E> guard;
+    @Getter
+    private final BiConsumer<StateContext, ? super E> action;
+
+    /**
+     * Creates a new instance with the specified {@link State} as next state for messages of the specified type.
+     *
+     * @param type      the type of the message.
+     * @param nextState the next {@link State} or <code>null</code> to loopback to the same {@link State}.
+     * @param action    the action to execute.
+     */
+    public TypedTransition(Class<E> type, State nextState, BiConsumer<StateContext, ? super E> action) {
+        this(type, nextState, null, action);
+    }
+
+    /**
+     * Creates a new instance with the specified {@link State} as next state for messages of the specified type. The
+     * {@link Transition} is only executed if the guard accepts the message, otherwise the next {@link Transition} is
+     * tried.
+     *
+     * @param type      the type of the message.
+     * @param nextState the next {@link State} or <code>null</code> to loopback to the same {@link State}.
+     * @param guard     the guard or <code>null</code> to accept any message.
+     * @param action    the action to execute.
+     */
+    public TypedTransition(Class<E> type, State nextState, BiPredicate<StateContext, ? super E> guard,
+                           BiConsumer<StateContext, ? super E> action) {
+        super(requireNonNull(type, "NULL is not permitted as value for 'type' parameter."), nextState);
+        requireNonNull(action, "NULL is not permitted as value for 'action' parameter.");
+
+        this.type = type;
+        this.guard = guard;
+        this.action = action;
+    }
+
+    @Override
+    public boolean execute(Event event) {
+        Object id = event.getId();
+        if (!(id instanceof Class) || !type.isAssignableFrom((Class<?>) id)) {
+            return false;
+        }
+
+        return doExecute(event);
+    }
+
+    @Override
+    protected boolean doExecute(Event event) {
+        Object[] arguments = event.getArguments();
+        if (arguments.length == 0 || !type.isInstance(arguments[0])) {
+            return false;
+        }
+
+        E message = type.cast(arguments[0]);
+        StateContext context = event.getContext();
+        if (guard != null && !guard.test(context, message)) {
+            return false;
+        }
+
+        action.accept(context, message);
+        return true;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm;
+
+import de.am.common.sm.context.DefaultStateContext;
+import de.am.common.sm.context.StateContext;
+import de.am.common.sm.event.Event;
+import de.am.common.sm.transition.LambdaTransition;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests {@link EventLoopGroup}.
+ *
+ * @author Martin Absmeier
+ */
+class EventLoopGroupTest {
+
+    @Test
+    void testSubmit() throws InterruptedException {
+        State counting = new State("counting");
+        counting.addTransition(new LambdaTransition("inc", (ctx, args) -> {
+            @SuppressWarnings("unchecked")
+            List<Integer> values = (List<Integer>) ctx.getAttribute("values");
+            values.add((Integer) args[0]);
+            ctx.setAttribute("thread", Thread.currentThread().getName());
+        }));
+        StateMachine sm = new StateMachine(new State[]{counting}, "counting");
+
+        List<StateContext> contexts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            StateContext context = new DefaultStateContext();
+            context.setAttribute("values", new ArrayList<Integer>());
+            contexts.add(context);
+        }
+
+        EventLoopGroup group = new EventLoopGroup(sm, 4);
+        assertEquals(4, group.getThreadCount());
+        for (int i = 0; i < 30; i++) {
+            for (StateContext context : contexts) {
+                group.submit(new Event("inc", context, new Object[]{i}));
+            }
+        }
+        group.close();
+        assertThrows(IllegalStateException.class, () -> group.submit(new Event("inc", contexts.get(0))));
+
+        for (StateContext context : contexts) {
+            List<?> values = (List<?>) context.getAttribute("values");
+            assertEquals(30, values.size());
+            for (int i = 0; i < values.size(); i++) {
+                assertEquals(i, values.get(i));
+            }
+            assertTrue(((String) context.getAttribute("thread")).startsWith("common-sm-loop-"));
+        }
+    }
+
+    @Test
+    void testTimeoutOnLoop() throws InterruptedException {
+        State waiting = new State("waiting");
+        State expired = new State("expired");
+        AtomicReference<String> thread = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        waiting.setTimeout(Duration.ofMillis(50), "timeout");
+        waiting.addTransition(new LambdaTransition("start", (ctx, args) -> ctx.setAttribute("thread", Thread.currentThread().getName())));
+        waiting.addTransition(new LambdaTransition("timeout", expired, (ctx, args) -> {
+            thread.set(Thread.currentThread().getName());
+            latch.countDown();
+        }));
+        StateMachine sm = new StateMachine(new State[]{waiting, expired}, "waiting");
+
+        try (EventLoopGroup group = new EventLoopGroup(sm, 2)) {
+            StateContext context = new DefaultStateContext();
+            group.submit(new Event("start", context));
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertEquals(context.getAttribute("thread"), thread.get());
+        }
+    }
+
+    @Test
+    void testTimeoutArmedBeforeGroupOnLoop() throws InterruptedException {
+        State waiting = new State("waiting");
+        State expired = new State("expired");
+        AtomicReference<String> thread = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        waiting.setTimeout(Duration.ofMillis(100), "timeout");
+        waiting.addTransition(new LambdaTransition("start", (ctx, args) -> { }));
+        waiting.addTransition(new LambdaTransition("timeout", expired, (ctx, args) -> {
+            thread.set(Thread.currentThread().getName());
+            latch.countDown();
+        }));
+        StateMachine sm = new StateMachine(new State[]{waiting, expired}, "waiting");
+        StateContext context = new DefaultStateContext();
+        sm.handle(new Event("start", context));
+
+        EventLoopGroup group = new EventLoopGroup(sm, 2);
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertTrue(thread.get().startsWith("common-sm-loop-"));
+        } finally {
+            group.close();
+        }
+    }
+
+    @Test
+    void testScheduleOnLoop() throws InterruptedException {
+        State s1 = new State("s1");
+        AtomicReference<String> thread = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        s1.addTransition(new LambdaTransition("foo", (ctx, args) -> {
+            thread.set(Thread.currentThread().getName());
+            latch.countDown();
+        }));
+        StateMachine sm = new StateMachine(new State[]{s1}, "s1");
+
+        EventLoopGroup group = new EventLoopGroup(sm, 2);
+        try {
+            sm.schedule(new Event("foo", new DefaultStateContext()), Duration.ofMillis(20));
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertTrue(thread.get().startsWith("common-sm-loop-"));
+        } finally {
+            group.close();
+        }
+    }
+
+    @Test
+    void testHandleOutsideLoopRefused() {
+        State s1 = new State("s1");
+        s1.addTransition(new LambdaTransition("foo", (ctx, args) -> { }));
+        StateMachine sm = new StateMachine(new State[]{s1}, "s1");
+        StateContext context = new DefaultStateContext();
+
+        EventLoopGroup group = new EventLoopGroup(sm, 1);
+        try {
+            assertThrows(IllegalStateException.class, () -> sm.handle(new Event("foo", context)));
+            assertThrows(IllegalStateException.class, () -> sm.tryHandle(new Event("foo", context)));
+            assertThrows(IllegalStateException.class, () -> new EventLoopGroup(sm, 1));
+        } finally {
+            group.close();
+        }
+        assertEquals(DispatchResult.HANDLED, sm.tryHandle(new Event("foo", context)));
+    }
+
+    @Test
+    void testBroadcastOnLoops() {
+        State s1 = new State("s1");
+        State s2 = new State("s2");
+        s1.addTransition(new LambdaTransition("foo", s2, (ctx, args) -> ctx.setAttribute("thread", Thread.currentThread().getName())));
+        StateMachine sm = new StateMachine(new State[]{s1, s2}, "s1");
+
+        List<StateContext> contexts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            contexts.add(new DefaultStateContext());
+        }
+        EventLoopGroup group = new EventLoopGroup(sm, 4);
+        try {
+            BroadcastResult result = sm.broadcast(contexts, "foo");
+            assertEquals(10, result.getCount(DispatchResult.HANDLED));
+        } finally {
+            group.close();
+        }
+        for (StateContext context : contexts) {
+            assertSame(s2, context.getCurrentState());
+            assertTrue(((String) context.getAttribute("thread")).startsWith("common-sm-loop-"));
+        }
+    }
+
+    @Test
+    void testExecuteRacingWithClose() throws InterruptedException {
+        State s1 = new State("s1");
+        StateMachine sm = new StateMachine(new State[]{s1}, "s1");
+        StateContext context = new DefaultStateContext();
+
+        for (int round = 0; round < 20; round++) {
+            EventLoopGroup group = new EventLoopGroup(sm, 1);
+            AtomicInteger accepted = new AtomicInteger();
+            AtomicInteger executed = new AtomicInteger();
+            Thread producer = new Thread(() -> {
+                try {
+                    while (true) {
+                        group.execute(context, executed::incrementAndGet);
+                        accepted.incrementAndGet();
+                    }
+                } catch (IllegalStateException e) {
+                    /* The group has been closed. */
+                }
+            });
+            producer.start();
+            while (accepted.get() < 1000) {
+                Thread.onSpinWait();
+            }
+            group.close();
+            producer.join();
+
+            assertEquals(accepted.get(), executed.get(), "We expect every accepted task to be run.");
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm;
+
+import de.am.common.sm.context.DefaultStateContext;
+import de.am.common.sm.context.StateContext;
+import de.am.common.sm.event.Event;
+import de.am.common.sm.transition.NoopTransition;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests {@link StateIndex}.
+ *
+ * @author Martin Absmeier
+ */
+class StateIndexTest {
+
+    @Test
+    void testIndex() {
+        State idle = new State("idle");
+        State playing = new State("playing");
+        State closed = new State("closed").setTerminal(true);
+        idle.addTransition(new NoopTransition("play", playing));
+        idle.addTransition(new NoopTransition("idle"));
+        playing.addTransition(new NoopTransition("close", closed));
+
+        StateMachine sm = new StateMachine(new State[]{idle, playing, closed}, "idle");
+        assertNull(sm.getStateIndex());
+        StateIndex index = sm.enableStateIndex();
+        assertSame(index, sm.enableStateIndex());
+
+        /* Contexts are compared by identity even if they are equal. */
+        StateContext first = new DefaultStateContext();
+        StateContext second = new DefaultStateContext();
+        StateContext third = new DefaultStateContext();
+        sm.handle(new Event("idle", first));
+        sm.handle(new Event("idle", second));
+        sm.handle(new Event("idle", third));
+        assertEquals(3, index.count("idle"));
+
+        sm.handle(new Event("play", first));
+        sm.handle(new Event("play", second));
+        assertEquals(1, index.count("idle"));
+        assertEquals(2, index.count("playing"));
+        assertEquals(List.of(third), List.copyOf(index.contexts("idle")));
+        assertTrue(index.contexts("playing").stream().allMatch(c -> c == first || c == second));
+
+        sm.handle(new Event("close", first));
+        assertEquals(Map.of("idle", 1L, "playing", 1L), index.counts());
+        assertTrue(index.contexts("closed").isEmpty());
+
+        index.remove(third);
+        assertEquals(0, index.count("idle"));
+        assertEquals(0, index.count("unknown"));
+    }
+
+    @Test
+    void testIndexUpdatedOnStateChangeOnly() {
+        State idle = new State("idle");
+        State playing = new State("playing");
+        idle.addTransition(new NoopTransition("play", playing));
+        idle.addTransition(new NoopTransition("idle"));
+
+        StateMachine sm = new StateMachine(new State[]{idle, playing}, "idle");
+        StateContext context = new DefaultStateContext();
+        sm.handle(new Event("idle", context));
+        StateIndex index = sm.enableStateIndex();
+        assertEquals(0, index.count("idle"), "We expect contexts to be unknown until their next event.");
+
+        sm.handle(new Event("idle", context));
+        assertEquals(1, index.count("idle"), "We expect a context not seen yet to be indexed.");
+
+        /* Events which do not change the state leave the index alone once the context is known. */
+        index.remove(context);
+        sm.handle(new Event("idle", context));
+        assertEquals(0, index.count("idle"));
+
+        sm.handle(new Event("play", context));
+        assertEquals(1, index.count("playing"));
+    }
+
+    @Test
+    void testAbandonedContextsAreDropped() throws Exception {
+        State idle = new State("idle");
+        idle.addTransition(new NoopTransition("idle"));
+        StateMachine sm = new StateMachine(new State[]{idle}, "idle");
+        StateIndex index = sm.enableStateIndex();
+
+        StateContext kept = new DefaultStateContext();
+        sm.handle(new Event("idle", kept));
+        sm.handle(new Event("idle", new DefaultStateContext()));
+        assertEquals(2, index.count("idle"));
+
+        for (int i = 0; i < 50 && index.count("idle") > 1; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(1, index.count("idle"));
+        assertEquals(List.of(kept), List.copyOf(index.contexts("idle")));
+    }
+
+    @Test
+    void testConcurrentUpdates() throws Exception {
+        State idle = new State("idle");
+        State playing = new State("playing");
+        StateMachine sm = new StateMachine(new State[]{idle, playing}, "idle");
+        StateIndex index = sm.enableStateIndex();
+        StateContext context = new DefaultStateContext();
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            State state = t % 2 == 0 ? idle : playing;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    index.update(context, state);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, index.count("idle") + index.count("playing"));
+
+        index.remove(context);
+        assertEquals(Map.of(), index.counts());
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm;
+
+import de.am.common.sm.context.DefaultStateContext;
+import de.am.common.sm.context.StateContext;
+import de.am.common.sm.event.Event;
+import de.am.common.sm.event.TypedEventFactory;
+import de.am.common.sm.exception.NoSuchStateException;
+import de.am.common.sm.exception.StateMachineCreationException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests {@link StateMachineBuilder}.
+ *
+ * @author Martin Absmeier
+ */
+class StateMachineBuilderTest {
+
+    @Test
+    void testBuild() {
+        List<String> log = new ArrayList<>();
+        StateMachine sm = new StateMachineBuilder()
+            .state("root")
+            .state("idle", "root")
+            .state("running", "root")
+            .state("done")
+            .transition("idle", "start", "running", (context, args) -> log.add("start " + args[0]))
+            .internalTransition("running", "tick", (context, args) -> log.add("tick"))
+            .transition("running", "stop", "idle", (context, args) -> (Integer) args[0] > 0,
+                (context, args) -> log.add("stop"), 0)
+            .transition("root", "close", "done")
+            .onEntry("running", (context, state) -> log.add("enter " + state.getId()))
+            .onExit("running", (context, state) -> log.add("exit " + state.getId()))
+            .terminal("done")
+            .build("idle");
+
+        StateContext context = new DefaultStateContext();
+        sm.handle(new Event("start", context, new Object[]{"fast"}));
+        sm.handle(new Event("tick", context));
+        assertEquals(DispatchResult.UNHANDLED, sm.tryHandle(new Event("stop", context, new Object[]{0})));
+        sm.handle(new Event("stop", context, new Object[]{1}));
+        assertEquals(List.of("start fast", "enter running", "tick", "stop", "exit running"), log);
+        assertSame(sm.getState("idle"), context.getCurrentState());
+
+        sm.handle(new Event("close", context));
+        assertTrue(context.getCurrentState().isTerminal());
+    }
+
+    @Test
+    void testBuildWithTypedTransitions() {
+        List<Object> received = new ArrayList<>();
+        StateMachine sm = new StateMachineBuilder()
+            .state("closed")
+            .state("open")
+            .typedTransition("closed", Open.class, "open", (context, open) -> received.add(open.port()))
+            .typedTransition("open", Command.class, null, (context, command) -> received.add(command))
+            .build("closed");
+
+        assertTrue(sm.isAcceptedEventId(Open.class));
+        assertTrue(sm.isAcceptedEventId(Close.class));
+        assertFalse(sm.isAcceptedEventId(String.class));
+        assertFalse(sm.isAcceptedEventId(sm.getState("closed"), Close.class));
+
+        StateContext context = new DefaultStateContext();
+        sm.handle(TypedEventFactory.of(context, new Open(8080)));
+        sm.handle(TypedEventFactory.of(context, new Close()));
+        assertEquals(List.of(8080, new Close()), received);
+        assertSame(sm.getState("open"), context.getCurrentState());
+    }
+
+    @Test
+    void testUnknownStates() {
+        StateMachineBuilder builder = new StateMachineBuilder().state("a");
+        assertThrows(NoSuchStateException.class, () -> builder.state("b", "parent"));
+        assertThrows(NoSuchStateException.class, () -> builder.transition("a", "foo", "c"));
+        assertThrows(StateMachineCreationException.class, () -> builder.state("a"));
+        assertThrows(StateMachineCreationException.class, () -> builder.build("c"));
+    }
+
+    sealed interface Command permits Open, Close {
+    }
+
+    record Open(int port) implements Command {
+    }
+
+    record Close() implements Command {
+    }
+}
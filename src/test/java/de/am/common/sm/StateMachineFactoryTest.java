@@ -15,8 +15,13 @@
  */
 package de.am.common.sm;
 
+import de.am.common.sm.annotation.OnEntry;
 import de.am.common.sm.annotation.State;
+import de.am.common.sm.annotation.Timeout;
 import de.am.common.sm.annotation.Transitions;
+import de.am.common.sm.context.DefaultStateContext;
+import de.am.common.sm.context.StateContext;
+import de.am.common.sm.event.Event;
 import de.am.common.sm.exception.StateMachineCreationException;
 import de.am.common.sm.transition.MethodTransition;
 import de.am.common.sm.transition.Transition;
@@ -24,15 +29,24 @@ import lombok.Getter;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Tests {@link StateMachineFactory}.
@@ -112,6 +126,133 @@ class StateMachineFactoryTest {
         assertEquals(new MethodTransition("foo", fooOrBarInCOrFooInD, states), trans.get(0));
     }
 
+    @Test
+    void testCreateWithSeveralHandlers() throws Exception {
+        States states = new States();
+        MoreTransitions more = new MoreTransitions();
+        StateMachine sm = StateMachineFactory.create(de.am.common.sm.annotation.Transition.class).create(States.A, states, more);
+
+        de.am.common.sm.State a = sm.getState(States.A);
+        Method bazInA = MoreTransitions.class.getDeclaredMethod("bazInA");
+        Method quxInA = MoreTransitions.class.getDeclaredMethod("quxInA");
+
+        List<Transition> trans = a.getTransitions();
+        assertEquals(5, trans.size());
+        assertEquals(new MethodTransition("baz", bazInA, more), trans.get(0));
+        assertEquals(new MethodTransition("bar", barInA, states), trans.get(1));
+        assertEquals(new MethodTransition("*", error, states), trans.get(2));
+        assertEquals(new MethodTransition("foo", sm.getState(States.B), fooInA, states), trans.get(3));
+        assertEquals(new MethodTransition("qux", quxInA, more), trans.get(4));
+    }
+
+    @Test
+    void testCreateTwiceBindsNewHandlers() {
+        StateMachineFactory factory = StateMachineFactory.create(de.am.common.sm.annotation.Transition.class);
+        States first = new States();
+        States second = new States();
+        StateMachine sm1 = factory.create(States.A, first);
+        StateMachine sm2 = factory.create(States.A, second);
+
+        de.am.common.sm.State a1 = sm1.getState(States.A);
+        de.am.common.sm.State a2 = sm2.getState(States.A);
+        assertNotSame(a1, a2);
+        assertEquals(new MethodTransition("bar", barInA, first), a1.getTransitions().get(0));
+        assertEquals(new MethodTransition("bar", barInA, second), a2.getTransitions().get(0));
+        assertSame(sm2.getState(States.B), ((MethodTransition) a2.getTransitions().get(2)).getNextState());
+    }
+
+    @Test
+    void testCreateWithContextBoundHandlers() {
+        StateMachine sm = StateMachineFactory.create(de.am.common.sm.annotation.Transition.class).create(Counter.IDLE, ContextHandler.of(Counter.class));
+        Counter first = new Counter();
+        Counter second = new Counter();
+        StateContext firstContext = new DefaultStateContext();
+        StateContext secondContext = new DefaultStateContext();
+        firstContext.setAttribute(Counter.class, first);
+        secondContext.setAttribute(Counter.class, second);
+
+        sm.handle(new Event("inc", firstContext));
+        sm.handle(new Event("inc", firstContext));
+        sm.handle(new Event("inc", secondContext));
+
+        assertEquals(2, first.count);
+        assertEquals(2, first.entries);
+        assertEquals(1, second.count);
+        assertEquals(1, second.entries);
+        assertSame(sm.getState(Counter.COUNTING), firstContext.getCurrentState());
+    }
+
+    @Test
+    void testCreateWithStateAttributes() {
+        StateMachine sm = StateMachineFactory.create(de.am.common.sm.annotation.Transition.class).create(Session.CONNECTING, new Session());
+
+        de.am.common.sm.State connecting = sm.getState(Session.CONNECTING);
+        assertEquals(Duration.ofSeconds(5), connecting.getTimeout());
+        assertEquals(Timeout.TIMEOUT_EVENT_ID, connecting.getTimeoutEventId());
+        assertEquals(Set.of("send"), connecting.getDeferredEventIds());
+
+        de.am.common.sm.State connected = sm.getState(Session.CONNECTED);
+        assertNull(connected.getTimeout());
+        assertTrue(connected.getDeferredEventIds().isEmpty());
+        assertFalse(connected.isTerminal());
+        assertTrue(sm.getState(Session.CLOSED).isTerminal());
+    }
+
+    @Test
+    void testWriteAndReadMetadata(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("handlers.smd");
+        StateMachineFactory.create(de.am.common.sm.annotation.Transition.class).writeMetadata(file, Session.class, States.class);
+
+        StateMachineFactory factory = StateMachineFactory.create(de.am.common.sm.annotation.Transition.class);
+        assertEquals(2, factory.readMetadata(file));
+        StateMachine sm = factory.create(Session.CONNECTING, new Session());
+        de.am.common.sm.State connecting = sm.getState(Session.CONNECTING);
+        assertEquals(Duration.ofSeconds(5), connecting.getTimeout());
+        assertEquals(Set.of("send"), connecting.getDeferredEventIds());
+        assertTrue(sm.getState(Session.CLOSED).isTerminal());
+
+        StateContext context = new DefaultStateContext();
+        sm.handle(new Event("connected", context));
+        assertSame(sm.getState(Session.CONNECTED), context.getCurrentState());
+
+        States states = new States();
+        de.am.common.sm.State a = factory.create(States.A, states).getState(States.A);
+        assertEquals(new MethodTransition("bar", barInA, states), a.getTransitions().get(0));
+    }
+
+    @Test
+    void testReadStaleMetadata(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("handlers.smd");
+        StateMachineFactory factory = StateMachineFactory.create(de.am.common.sm.annotation.Transition.class);
+        factory.writeMetadata(file, Session.class);
+
+        /* Corrupt the class file checksum behind magic, annotation name, count and class name. */
+        byte[] bytes = Files.readAllBytes(file);
+        int offset = 4 + 2 + de.am.common.sm.annotation.Transition.class.getName().length() + 4 + 2 + Session.class.getName().length();
+        bytes[offset] ^= 0x7F;
+        Files.write(file, bytes);
+        assertEquals(0, StateMachineFactory.create(de.am.common.sm.annotation.Transition.class).readMetadata(file));
+
+        Files.write(file, new byte[]{1, 2, 3, 4});
+        assertThrows(StateMachineCreationException.class, () -> factory.readMetadata(file));
+    }
+
+    @Test
+    void testReadMetadataSkipsResolvedClasses(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("handlers.smd");
+        StateMachineFactory factory = StateMachineFactory.create(de.am.common.sm.annotation.Transition.class);
+        factory.writeMetadata(file, Session.class, States.class);
+
+        assertEquals(0, factory.readMetadata(file));
+    }
+
+    @Test
+    void testCreateWithHandlerClassDeclaresStatesOnly() {
+        StateMachine sm = StateMachineFactory.create(de.am.common.sm.annotation.Transition.class).create(Counter.IDLE, Counter.class);
+        assertTrue(sm.getState(Counter.IDLE).getTransitions().isEmpty(), "We expect no transitions.");
+        assertTrue(sm.getState(Counter.COUNTING).getOnEntrySelfTransitions().isEmpty(), "We expect no entry hooks.");
+    }
+
     @Test
     void testCreateStates() throws Exception {
         de.am.common.sm.State[] states = StateMachineFactory.createStates(StateMachineFactory.getFields(States.class));
@@ -171,6 +312,58 @@ class StateMachineFactoryTest {
 
     }
 
+    public static class Counter {
+        @State
+        protected static final String IDLE = "idle";
+
+        @State
+        protected static final String COUNTING = "counting";
+
+        private int count;
+
+        private int entries;
+
+        @de.am.common.sm.annotation.Transition(on = "inc", in = {IDLE, COUNTING}, next = COUNTING)
+        public void increment() {
+            count++;
+        }
+
+        @OnEntry(COUNTING)
+        public void entered() {
+            entries++;
+        }
+    }
+
+    public static class Session {
+        @State(defer = "send")
+        @Timeout(value = 5, unit = TimeUnit.SECONDS)
+        protected static final String CONNECTING = "connecting";
+
+        @State
+        protected static final String CONNECTED = "connected";
+
+        @State(terminal = true)
+        protected static final String CLOSED = "closed";
+
+        @de.am.common.sm.annotation.Transition(on = "connected", in = CONNECTING, next = CONNECTED)
+        public void connected() {
+        }
+
+        @de.am.common.sm.annotation.Transition(on = "send", in = CONNECTED)
+        public void send() {
+        }
+    }
+
+    public static class MoreTransitions {
+        @de.am.common.sm.annotation.Transition(on = "baz", in = States.A, weight = -1)
+        protected void bazInA() {
+        }
+
+        @de.am.common.sm.annotation.Transition(on = "qux", in = States.A)
+        protected void quxInA() {
+        }
+    }
+
     @Getter
     public static class StatesWithMissingParents {
         @State("b")
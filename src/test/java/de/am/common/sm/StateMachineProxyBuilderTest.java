@@ -20,15 +20,29 @@ import de.am.common.sm.annotation.OnExit;
 import de.am.common.sm.annotation.State;
 import de.am.common.sm.annotation.Transition;
 import de.am.common.sm.annotation.Transitions;
+import de.am.common.sm.context.DefaultStateContext;
 import de.am.common.sm.context.StateContext;
+import de.am.common.sm.context.StateContextLookup;
 import de.am.common.sm.event.Event;
+import de.am.common.sm.exception.UnhandledEventException;
 import de.am.common.sm.transition.MethodSelfTransition;
 import de.am.common.sm.transition.MethodTransition;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Property;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -56,6 +70,25 @@ class StateMachineProxyBuilderTest {
         assertTrue(handler.finished);
     }
 
+    @Test
+    void testReentrantStateMachineIgnoringUnhandledEvents() {
+        ReentrantStateMachineHandler handler = new ReentrantStateMachineHandler();
+
+        de.am.common.sm.State s1 = new de.am.common.sm.State("s1");
+        de.am.common.sm.State s2 = new de.am.common.sm.State("s2");
+        de.am.common.sm.State s3 = new de.am.common.sm.State("s3");
+
+        s1.addTransition(new MethodTransition("call1", s2, handler));
+        s2.addTransition(new MethodTransition("call2", s3, handler));
+        s3.addTransition(new MethodTransition("call3", handler));
+
+        /* call2 is issued while the context is still in s1, but it is queued and processed in s2. */
+        StateMachine sm = new StateMachine(new de.am.common.sm.State[]{s1, s2, s3}, "s1");
+        Reentrant reentrant = new StateMachineProxyBuilder().setIgnoreUnhandledEvents(true).create(Reentrant.class, sm);
+        reentrant.call1(reentrant);
+        assertTrue(handler.finished);
+    }
+
     @Test
     void testTapeDeckStateMachine() {
         TapeDeckStateMachineHandler handler = new TapeDeckStateMachineHandler();
@@ -114,6 +147,142 @@ class StateMachineProxyBuilderTest {
         assertTrue(messages.isEmpty());
     }
 
+    @Test
+    void testUnknownEventRejectedBeforeContextLookup() {
+        TapeDeckStateMachineHandler handler = new TapeDeckStateMachineHandler();
+
+        de.am.common.sm.State s1 = new de.am.common.sm.State("s1");
+        de.am.common.sm.State s2 = new de.am.common.sm.State("s2");
+        s1.addTransition(new MethodTransition("insert", s2, "inserted", handler));
+        s2.addTransition(new MethodTransition("eject", s1, "ejected", handler));
+
+        StateMachine sm = new StateMachine(new de.am.common.sm.State[]{s1, s2}, "s1");
+        StateContext context = new DefaultStateContext();
+        int[] lookups = new int[1];
+        TapeDeck player = new StateMachineProxyBuilder()
+            .setStateContextLookup(eventArgs -> {
+                lookups[0]++;
+                return context;
+            })
+            .setIgnoreUnhandledEvents(true)
+            .create(TapeDeck.class, sm);
+
+        player.start();
+        assertEquals(0, lookups[0]);
+
+        player.eject();
+        assertEquals(1, lookups[0]);
+        player.insert("Tape");
+        player.eject();
+        assertEquals(3, lookups[0]);
+        assertEquals(List.of("Tape 'Tape' inserted", "Tape ejected"), handler.messages);
+    }
+
+    @Test
+    void testContextRemovedInTerminalState() {
+        TapeDeckStateMachineHandler handler = new TapeDeckStateMachineHandler();
+
+        de.am.common.sm.State s1 = new de.am.common.sm.State("s1");
+        de.am.common.sm.State s2 = new de.am.common.sm.State("s2");
+        s2.setTerminal(true);
+        s1.addTransition(new MethodTransition("insert", s2, "inserted", handler));
+
+        StateMachine sm = new StateMachine(new de.am.common.sm.State[]{s1, s2}, "s1");
+        StateContext context = new DefaultStateContext();
+        List<StateContext> removed = new ArrayList<>();
+        TapeDeck player = new StateMachineProxyBuilder()
+            .setStateContextLookup(new StateContextLookup() {
+                @Override
+                public StateContext lookup(Object[] eventArgs) {
+                    return context;
+                }
+
+                @Override
+                public void remove(StateContext sc) {
+                    removed.add(sc);
+                }
+            })
+            .create(TapeDeck.class, sm);
+
+        player.insert("Tape");
+        assertEquals(List.of(context), removed);
+    }
+
+    @Test
+    void testEventLoopGroup() {
+        TapeDeckStateMachineHandler handler = new TapeDeckStateMachineHandler();
+
+        de.am.common.sm.State s1 = new de.am.common.sm.State("s1");
+        de.am.common.sm.State s2 = new de.am.common.sm.State("s2");
+        s2.setTerminal(true);
+        s1.addTransition(new MethodTransition("insert", s2, "inserted", handler));
+
+        StateMachine sm = new StateMachine(new de.am.common.sm.State[]{s1, s2}, "s1");
+        StateContext context = new DefaultStateContext();
+        List<StateContext> removed = new ArrayList<>();
+        EventLoopGroup group = new EventLoopGroup(sm, 2);
+        TapeDeck player = new StateMachineProxyBuilder()
+            .setEventLoopGroup(group)
+            .setStateContextLookup(new StateContextLookup() {
+                @Override
+                public StateContext lookup(Object[] eventArgs) {
+                    return context;
+                }
+
+                @Override
+                public void remove(StateContext sc) {
+                    removed.add(sc);
+                }
+            })
+            .create(TapeDeck.class, sm);
+
+        player.insert("Tape");
+        group.close();
+
+        assertSame(s2, context.getCurrentState());
+        assertEquals(List.of(context), removed);
+    }
+
+    @Test
+    void testEventLoopGroupReportsUnhandledEvents() throws InterruptedException {
+        TapeDeckStateMachineHandler handler = new TapeDeckStateMachineHandler();
+
+        de.am.common.sm.State s1 = new de.am.common.sm.State("s1");
+        de.am.common.sm.State s2 = new de.am.common.sm.State("s2");
+        s1.addTransition(new MethodTransition("insert", s2, "inserted", handler));
+        s2.addTransition(new MethodTransition("eject", s1, "ejected", handler));
+
+        StateMachine sm = new StateMachine(new de.am.common.sm.State[]{s1, s2}, "s1");
+        StateContext context = new DefaultStateContext();
+        BlockingQueue<Throwable> logged = new LinkedBlockingQueue<>();
+        AbstractAppender appender = new AbstractAppender("unhandled", null, null, true, Property.EMPTY_ARRAY) {
+            @Override
+            public void append(LogEvent event) {
+                if (event.getThrown() != null) {
+                    logged.add(event.getThrown());
+                }
+            }
+        };
+        appender.start();
+        Logger logger = (Logger) LogManager.getLogger(EventLoopGroup.class);
+        logger.addAppender(appender);
+
+        EventLoopGroup group = new EventLoopGroup(sm, 1);
+        try {
+            TapeDeck player = new StateMachineProxyBuilder()
+                .setEventLoopGroup(group)
+                .setStateContextLookup(eventArgs -> context)
+                .create(TapeDeck.class, sm);
+            player.eject();
+
+            Throwable thrown = logged.poll(5, TimeUnit.SECONDS);
+            assertTrue(thrown instanceof UnhandledEventException, "We expect the unhandled event to be reported.");
+        } finally {
+            group.close();
+            logger.removeAppender(appender);
+        }
+    }
+
     @Test
     void testTapeDeckStateMachineAnnotations() {
         TapeDeckStateMachineHandler handler = new TapeDeckStateMachineHandler();
@@ -16,14 +16,39 @@
 package de.am.common.sm;
 
 import de.am.common.sm.context.DefaultStateContext;
+import de.am.common.sm.context.LongStateContextLookup;
 import de.am.common.sm.context.StateContext;
+import de.am.common.sm.context.StateContextFactory;
 import de.am.common.sm.event.Event;
+import de.am.common.sm.exception.NoSuchStateException;
+import de.am.common.sm.exception.UnhandledEventException;
+import de.am.common.sm.timer.TimerHandle;
 import de.am.common.sm.transition.AbstractSelfTransition;
 import de.am.common.sm.transition.AbstractTransition;
+import de.am.common.sm.transition.LambdaTransition;
+import de.am.common.sm.transition.NoopTransition;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Tests {@link StateMachine}.
@@ -72,6 +97,451 @@ class StateMachineTest {
         assertEquals(true, context.getAttribute("success"));
     }
 
+    @Test
+    void testTimeoutFires() throws InterruptedException {
+        State s1 = new State("s1");
+        State s2 = new State("s2");
+        s1.setTimeout(Duration.ofMillis(20), "timeout");
+        s1.addTransition(new NoopTransition("start"));
+        s1.addTransition(new NoopTransition("timeout", s2));
+
+        StateContext context = new DefaultStateContext();
+        StateMachine sm = new StateMachine(new State[]{s1, s2}, "s1");
+        sm.handle(new Event("start", context));
+        assertSame(s1, context.getCurrentState());
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (context.getCurrentState() != s2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertSame(s2, context.getCurrentState());
+    }
+
+    @Test
+    void testTimeoutDeliveredByTimerExecutor() throws InterruptedException {
+        State s1 = new State("s1");
+        State s2 = new State("s2");
+        s1.setTimeout(Duration.ofMillis(20), "timeout");
+        s1.addTransition(new NoopTransition("start"));
+        s1.addTransition(new NoopTransition("timeout", s2));
+
+        AtomicInteger executions = new AtomicInteger();
+        StateContext context = new DefaultStateContext();
+        StateMachine sm = new StateMachine(new State[]{s1, s2}, "s1");
+        sm.setTimerExecutor(task -> {
+            executions.incrementAndGet();
+            task.run();
+        });
+        sm.handle(new Event("start", context));
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (context.getCurrentState() != s2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertSame(s2, context.getCurrentState());
+        assertEquals(1, executions.get(), "We expect the timeout to be handed to the timer executor.");
+    }
+
+    @Test
+    void testBookkeepingDoesNotAllocateAttributes() {
+        State s1 = new State("s1");
+        State s2 = new State("s2");
+        s1.setTimeout(Duration.ofSeconds(10), "timeout");
+        s1.addDeferredEventId("later");
+        s1.addTransition(new NoopTransition("start"));
+        s1.addTransition(new NoopTransition("leave", s2));
+
+        DefaultStateContext context = new DefaultStateContext();
+        StateMachine sm = new StateMachine(new State[]{s1, s2}, "s1");
+        sm.handle(new Event("start", context));
+        assertEquals(DispatchResult.DEFERRED, sm.tryHandle(new Event("later", context)));
+        assertNotNull(context.getMachineData(), "We expect the timer and the deferred event to be kept.");
+        assertTrue(context.toString().contains("attributes=null"), "We expect no attribute map.");
+
+        sm.tryHandle(new Event("leave", context));
+        assertTrue(context.toString().contains("attributes=null"), "We expect no attribute map.");
+    }
+
+    @Test
+    void testExpiredTimersDrainedOneTaskAtATime() throws InterruptedException {
+        State s1 = new State("s1");
+        State s2 = new State("s2");
+        s1.setTimeout(Duration.ofMillis(20), "timeout");
+        s1.addTransition(new NoopTransition("start"));
+        s1.addTransition(new NoopTransition("timeout", s2));
+
+        BlockingQueue<Runnable> drains = new LinkedBlockingQueue<>();
+        StateMachine sm = new StateMachine(new State[]{s1, s2}, "s1");
+        sm.setTimerExecutor(drains::add);
+        List<StateContext> contexts = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            StateContext context = new DefaultStateContext();
+            sm.handle(new Event("start", context));
+            contexts.add(context);
+        }
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!contexts.stream().allMatch(c -> c.getCurrentState() == s2) && System.currentTimeMillis() < deadline) {
+            Runnable drain = drains.poll(10, TimeUnit.MILLISECONDS);
+            assertTrue(drains.isEmpty(), "We expect a single drain task while the previous one has not run.");
+            if (drain != null) {
+                drain.run();
+            }
+        }
+        assertTrue(contexts.stream().allMatch(c -> c.getCurrentState() == s2), "We expect all timeouts to be processed.");
+    }
+
+    @Test
+    void testTerminalStateArmsNoTimeout() throws InterruptedException {
+        State s1 = new State("s1");
+        State done = new State("done");
+        State expired = new State("expired");
+        CountDownLatch marker = new CountDownLatch(1);
+        done.setTimeout(Duration.ofMillis(20), "timeout");
+        done.setTerminal(true);
+        done.addTransition(new NoopTransition("timeout", expired));
+        done.addTransition(new LambdaTransition("marker", (ctx, args) -> marker.countDown()));
+        s1.addTransition(new NoopTransition("finish", done));
+
+        StateContext context = new DefaultStateContext();
+        StateMachine sm = new StateMachine(new State[]{s1, done, expired}, "s1");
+        sm.handle(new Event("finish", context));
+
+        /* Expired timers of a machine are processed in expiry order, so the timeout would arrive before the marker. */
+        sm.schedule(new Event("marker", context), Duration.ofMillis(100));
+        assertTrue(marker.await(2, TimeUnit.SECONDS), "We expect the marker event.");
+        assertSame(done, context.getCurrentState());
+    }
+
+    @Test
+    void testTimeoutCancelledWhenStateLeft() throws InterruptedException {
+        State s1 = new State("s1");
+        State s2 = new State("s2");
+        State s3 = new State("s3");
+        CountDownLatch marker = new CountDownLatch(1);
+        s1.setTimeout(Duration.ofMillis(50), "timeout");
+        s1.addTransition(new NoopTransition("timeout", s3));
+        s1.addTransition(new NoopTransition("leave", s2));
+        s2.addTransition(new LambdaTransition("marker", (ctx, args) -> marker.countDown()));
+
+        StateContext context = new DefaultStateContext();
+        StateMachine sm = new StateMachine(new State[]{s1, s2, s3}, "s1");
+        sm.handle(new Event("leave", context));
+        assertSame(s2, context.getCurrentState());
+
+        /* Expired timers of a machine are processed in expiry order, so the timeout would arrive before the marker. */
+        sm.schedule(new Event("marker", context), Duration.ofMillis(150));
+        assertTrue(marker.await(2, TimeUnit.SECONDS), "We expect the marker event.");
+        assertSame(s2, context.getCurrentState());
+    }
+
+    @Test
+    void testTimeoutToTerminalStateRemovesContext() throws InterruptedException {
+        State s1 = new State("s1");
+        State done = new State("done");
+        done.setTerminal(true);
+        s1.setTimeout(Duration.ofMillis(20), "timeout");
+        s1.addTransition(new NoopTransition("start"));
+        s1.addTransition(new NoopTransition("timeout", done));
+
+        BlockingQueue<StateContext> released = new LinkedBlockingQueue<>();
+        LongStateContextLookup lookup = new LongStateContextLookup(new StateContextFactory() {
+            @Override
+            public StateContext create() {
+                return new DefaultStateContext();
+            }
+
+            @Override
+            public void release(StateContext context) {
+                released.add(context);
+            }
+        });
+        StateMachine sm = new StateMachine(new State[]{s1, done}, "s1");
+        sm.addStateContextLookup(lookup);
+
+        StateContext context = lookup.lookup(1L);
+        sm.handle(new Event("start", context));
+        assertSame(s1, context.getCurrentState());
+
+        assertSame(context, released.poll(2, TimeUnit.SECONDS), "We expect the context to be released.");
+        assertNull(lookup.get(1L), "We expect the context to be removed.");
+        assertNull(context.getCurrentState(), "We expect a reset context.");
+        assertNotSame(context, lookup.lookup(1L), "We expect a new context for the same key.");
+    }
+
+    @Test
+    void testAcceptedEventIds() {
+        State parent = new State("parent");
+        State s1 = new State("s1", parent);
+        State s2 = new State("s2");
+        parent.addTransition(new NoopTransition("reset"));
+        s1.addTransition(new NoopTransition("foo", s2));
+        s2.addDeferredEventId("bar");
+
+        StateMachine sm = new StateMachine(new State[]{parent, s1, s2}, "s1");
+        assertEquals(Set.of("reset", "foo", "bar"), sm.getAcceptedEventIds());
+        assertTrue(sm.isAcceptedEventId("foo"));
+        assertFalse(sm.isAcceptedEventId("baz"));
+        assertTrue(sm.isAcceptedEventId(s1, "reset"));
+        assertFalse(sm.isAcceptedEventId(s1, "bar"));
+        assertTrue(sm.isAcceptedEventId(s2, "bar"));
+        assertFalse(sm.isAcceptedEventId(s2, "foo"));
+    }
+
+    @Test
+    void testAcceptedEventIdsOfUnlistedParent() {
+        State parent = new State("parent");
+        State s1 = new State("s1", parent);
+        parent.addTransition(new NoopTransition("reset"));
+        s1.addTransition(new NoopTransition("foo"));
+
+        StateMachine sm = new StateMachine(new State[]{s1}, "s1");
+        assertTrue(sm.isAcceptedEventId("reset"));
+        assertTrue(sm.isAcceptedEventId(s1, "reset"));
+        assertFalse(sm.isAcceptedEventId(s1, "baz"));
+    }
+
+    @Test
+    void testOverriddenMatchingAcceptsAnyEventId() {
+        State s1 = new State("s1");
+        State s2 = new State("s2");
+        s1.addTransition(new PrefixTransition("foo"));
+        s2.addTransition(new CountingTransition("foo"));
+
+        StateMachine sm = new StateMachine(new State[]{s1, s2}, "s1");
+        assertTrue(sm.isAcceptedEventId("foobar"));
+        assertTrue(sm.isAcceptedEventId(s1, "foobar"));
+        assertFalse(sm.isAcceptedEventId(s2, "foobar"), "We expect transitions keeping the matching to be indexed.");
+    }
+
+    @Test
+    void testWildcardAcceptsAnyEventId() {
+        State s1 = new State("s1");
+        State s2 = new State("s2");
+        s1.addTransition(new NoopTransition(Event.WILDCARD_EVENT_ID));
+        s2.addTransition(new NoopTransition("foo"));
+
+        StateMachine sm = new StateMachine(new State[]{s1, s2}, "s1");
+        assertTrue(sm.isAcceptedEventId("baz"));
+        assertTrue(sm.isAcceptedEventId(s1, "baz"));
+        assertFalse(sm.isAcceptedEventId(s2, "baz"));
+    }
+
+    @Test
+    void testTryHandle() {
+        State s1 = new State("s1");
+        State s2 = new State("s2");
+        s1.addDeferredEventId("bar");
+        s1.addTransition(new NoopTransition("foo", s2));
+
+        StateContext context = new DefaultStateContext();
+        StateMachine sm = new StateMachine(new State[]{s1, s2}, "s1");
+        assertEquals(DispatchResult.DEFERRED, sm.tryHandle(new Event("bar", context)));
+        assertEquals(DispatchResult.UNHANDLED, sm.tryHandle(new Event("baz", context)));
+        assertSame(s1, context.getCurrentState());
+        assertEquals(DispatchResult.HANDLED, sm.tryHandle(new Event("foo", context)));
+        assertSame(s2, context.getCurrentState());
+        assertEquals(DispatchResult.UNHANDLED, sm.tryHandle(new Event("foo", context)));
+        assertThrows(UnhandledEventException.class, () -> sm.handle(new Event("foo", context)));
+    }
+
+    @Test
+    void testTryHandleQueuesRecursiveEvents() {
+        State s1 = new State("s1");
+        State s2 = new State("s2");
+        StateMachine[] sm = new StateMachine[1];
+        DispatchResult[] nested = new DispatchResult[1];
+        s1.addTransition(new AbstractTransition("foo", s2) {
+            @Override
+            protected boolean doExecute(Event event) {
+                nested[0] = sm[0].tryHandle(new Event("unknown", event.getContext()));
+                return true;
+            }
+        });
+
+        StateContext context = new DefaultStateContext();
+        sm[0] = new StateMachine(new State[]{s1, s2}, "s1");
+        assertEquals(DispatchResult.HANDLED, sm[0].tryHandle(new Event("foo", context)));
+        assertEquals(DispatchResult.QUEUED, nested[0]);
+        assertSame(s2, context.getCurrentState());
+    }
+
+    @Test
+    void testDeferredEventReplayedAfterStateChange() {
+        State s1 = new State("s1");
+        State s2 = new State("s2");
+        s1.addDeferredEventId("foo");
+        s1.addTransition(new NoopTransition("go", s2));
+        s2.addTransition(new SuccessTransition("foo"));
+
+        StateContext context = new DefaultStateContext();
+        StateMachine sm = new StateMachine(new State[]{s1, s2}, "s1");
+        sm.handle(new Event("foo", context));
+        assertNull(context.getAttribute("success"));
+        assertEquals(1, sm.getDeferredEventCount());
+
+        sm.handle(new Event("go", context));
+        assertSame(s2, context.getCurrentState());
+        assertEquals(true, context.getAttribute("success"));
+        assertEquals(1, sm.getReplayedEventCount());
+    }
+
+    @Test
+    void testDeferredEventsDroppedInTerminalState() {
+        State s1 = new State("s1");
+        State s2 = new State("s2");
+        s2.setTerminal(true);
+        s1.addDeferredEventId("foo");
+        s1.addTransition(new NoopTransition("close", s2));
+
+        StateContext context = new DefaultStateContext();
+        StateMachine sm = new StateMachine(new State[]{s1, s2}, "s1");
+        sm.handle(new Event("foo", context));
+        sm.handle(new Event("close", context));
+        assertSame(s2, context.getCurrentState());
+        assertEquals(0, sm.getReplayedEventCount());
+        assertEquals(1, sm.getDroppedEventCount());
+    }
+
+    @Test
+    void testDeferredEventQueueBounded() {
+        State s1 = new State("s1");
+        s1.addDeferredEventId("foo");
+
+        StateContext context = new DefaultStateContext();
+        StateMachine sm = new StateMachine(new State[]{s1}, "s1");
+        sm.setMaxDeferredEvents(1);
+        sm.handle(new Event("foo", context));
+        assertThrows(UnhandledEventException.class, () -> sm.handle(new Event("foo", context)));
+        assertEquals(1, sm.getDeferredEventCount());
+        assertEquals(1, sm.getDroppedEventCount());
+    }
+
+    @Test
+    void testSchedule() throws InterruptedException {
+        State s1 = new State("s1");
+        State s2 = new State("s2");
+        s1.addTransition(new NoopTransition("foo", s2));
+
+        AtomicInteger executions = new AtomicInteger();
+        StateContext context = new DefaultStateContext();
+        StateMachine sm = new StateMachine(new State[]{s1, s2}, "s1");
+        sm.setTimerExecutor(task -> {
+            executions.incrementAndGet();
+            task.run();
+        });
+        TimerHandle handle = sm.schedule(new Event("foo", context), Duration.ofMillis(20));
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (context.getCurrentState() != s2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertSame(s2, context.getCurrentState());
+        assertTrue(handle.isExpired());
+        assertEquals(1, executions.get(), "We expect the event to be handed to the timer executor.");
+    }
+
+    @Test
+    void testScheduledEventsKeepDueOrder() throws InterruptedException {
+        State s1 = new State("s1");
+        List<Object> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(20);
+        for (String id : List.of("a", "b")) {
+            s1.addTransition(new LambdaTransition(id, (ctx, args) -> {
+                order.add(args[0]);
+                latch.countDown();
+            }));
+        }
+
+        StateContext context = new DefaultStateContext();
+        StateMachine sm = new StateMachine(new State[]{s1}, "s1");
+        List<Object> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            sm.schedule(new Event(i % 2 == 0 ? "a" : "b", context, new Object[]{i}), Duration.ofMillis(30));
+            expected.add(i);
+        }
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS), "We expect all scheduled events.");
+        assertEquals(expected, order);
+    }
+
+    @Test
+    void testSlowPeriodicEventDoesNotPileUp() throws InterruptedException {
+        State s1 = new State("s1");
+        s1.addTransition(new CountingTransition("tick"));
+
+        BlockingQueue<Runnable> drains = new LinkedBlockingQueue<>();
+        StateContext context = new DefaultStateContext();
+        StateMachine sm = new StateMachine(new State[]{s1}, "s1");
+        sm.setTimerExecutor(drains::add);
+        TimerHandle handle = sm.scheduleAtFixedRate(new Event("tick", context), Duration.ZERO, Duration.ofMillis(10));
+
+        /* The first period waits for the drain, the following ones expire meanwhile and are skipped. */
+        Runnable drain = drains.poll(2, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        assertTrue(handle.cancel());
+        drain.run();
+        assertEquals(1, count(context));
+        assertTrue(drains.isEmpty(), "We expect no further drain task.");
+    }
+
+    @Test
+    void testScheduleAtFixedRate() throws InterruptedException {
+        State s1 = new State("s1");
+        s1.addTransition(new CountingTransition("tick"));
+
+        StateContext context = new DefaultStateContext();
+        StateMachine sm = new StateMachine(new State[]{s1}, "s1");
+        TimerHandle handle = sm.scheduleAtFixedRate(new Event("tick", context), Duration.ZERO, Duration.ofMillis(10));
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (count(context) < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(handle.cancel());
+        assertTrue(count(context) >= 3);
+    }
+
+    private static int count(StateContext context) {
+        synchronized (context) {
+            Integer count = (Integer) context.getAttribute("count");
+            return count == null ? 0 : count;
+        }
+    }
+
+    private static class CountingTransition extends AbstractTransition {
+        public CountingTransition(Object eventId) {
+            super(eventId);
+        }
+
+        @Override
+        protected boolean doExecute(Event event) {
+            StateContext context = event.getContext();
+            synchronized (context) {
+                context.setAttribute("count", count(context) + 1);
+            }
+            return true;
+        }
+    }
+
+    /* Handles every event whose id starts with its own id. */
+    private static class PrefixTransition extends AbstractTransition {
+        public PrefixTransition(Object eventId) {
+            super(eventId);
+        }
+
+        @Override
+        public boolean execute(Event event) {
+            return String.valueOf(event.getId()).startsWith(String.valueOf(getEventId())) && doExecute(event);
+        }
+
+        @Override
+        protected boolean doExecute(Event event) {
+            event.getContext().setAttribute("success", true);
+            return true;
+        }
+    }
+
     private static class SuccessTransition extends AbstractTransition {
         public SuccessTransition(Object eventId) {
             super(eventId);
@@ -172,4 +642,214 @@ class StateMachineTest {
         assertEquals(true, context.getAttribute("SelfSuccess" + s1.getId()));
         assertEquals(true, context.getAttribute("SelfSuccess" + s2.getId()));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testHierarchicalExitAndEntry() {
+        State root = new State("root");
+        State a = new State("a", root);
+        State a1 = new State("a1", a);
+        State b = new State("b", root);
+        State b1 = new State("b1", b);
+        List<String> hooks = new ArrayList<>();
+        for (State state : new State[]{root, a, a1, b, b1}) {
+            state.addOnEntrySelfTransaction(new RecordingSelfTransition("enter ", hooks));
+            state.addOnExitSelfTransaction(new RecordingSelfTransition("exit ", hooks));
+        }
+        a1.addTransition(new NoopTransition("foo", b1));
+        b1.addTransition(new NoopTransition("bar", b1));
+        b1.addTransition(new NoopTransition("baz"));
+        b.addTransition(new NoopTransition("qux", b1));
+
+        StateContext context = new DefaultStateContext();
+        StateMachine sm = new StateMachine(new State[]{root, a, a1, b, b1}, "a1");
+        sm.handle(new Event("foo", context));
+        assertEquals(List.of("exit a1", "exit a", "enter b", "enter b1"), hooks);
+
+        hooks.clear();
+        sm.handle(new Event("bar", context));
+        assertEquals(List.of("exit b1", "enter b1"), hooks);
+
+        hooks.clear();
+        sm.handle(new Event("baz", context));
+        assertTrue(hooks.isEmpty());
+
+        hooks.clear();
+        sm.handle(new Event("qux", context));
+        assertEquals(List.of("exit b1", "enter b1"), hooks);
+    }
+
+    private static class RecordingSelfTransition extends AbstractSelfTransition {
+        private final String prefix;
+        private final List<String> hooks;
+
+        RecordingSelfTransition(String prefix, List<String> hooks) {
+            this.prefix = prefix;
+            this.hooks = hooks;
+        }
+
+        @Override
+        protected boolean doExecute(StateContext stateContext, State state) {
+            hooks.add(prefix + state.getId());
+            return true;
+        }
+    }
+
+    @Test
+    void testStatesFrozenOnCreation() {
+        State parent = new State("parent");
+        State s1 = new State("s1", parent);
+
+        new StateMachine(new State[]{s1}, "s1");
+        assertTrue(s1.isFrozen());
+        assertTrue(parent.isFrozen());
+        assertThrows(IllegalStateException.class, () -> s1.addTransition(new NoopTransition("foo")));
+    }
+
+    @Test
+    void testCompileThreshold() {
+        State s1 = new State("s1");
+        State s2 = new State("s2");
+        List<String> actions = new ArrayList<>();
+        s1.addTransition(new LambdaTransition("foo", s2, (ctx, args) -> actions.add("foo")));
+        s1.addTransition(new LambdaTransition(Event.WILDCARD_EVENT_ID, (ctx, args) -> actions.add("any")), 1);
+        s2.addTransition(new LambdaTransition("bar", s1, (ctx, args) -> actions.add("bar")));
+
+        StateContext context = new DefaultStateContext();
+        StateMachine sm = new StateMachine(new State[]{s1, s2}, "s1");
+        assertThrows(IllegalArgumentException.class, () -> sm.setCompileThreshold(-1));
+        sm.setCompileThreshold(2);
+
+        sm.handle(new Event("foo", context));
+        assertFalse(s1.isIndexed());
+        sm.handle(new Event("bar", context));
+        sm.handle(new Event("baz", context));
+        assertTrue(s1.isIndexed());
+        assertFalse(s2.isIndexed());
+        sm.handle(new Event("foo", context));
+        assertEquals(List.of("foo", "bar", "any", "foo"), actions);
+        assertEquals(s2, context.getCurrentState());
+    }
+
+    @Test
+    void testRedefine() {
+        State s1 = new State("s1");
+        State s2 = new State("s2");
+        s1.addTransition(new NoopTransition("foo", s2));
+
+        StateContext context = new DefaultStateContext();
+        StateContext other = new DefaultStateContext();
+        StateMachine sm = new StateMachine(new State[]{s1, s2}, "s1");
+        sm.handle(new Event("foo", context));
+        sm.handle(new Event("foo", other));
+
+        State v2s1 = new State("s1");
+        State v2s2 = new State("s2");
+        v2s2.addTransition(new NoopTransition("bar", v2s1));
+        sm.redefine(List.of(v2s1, v2s2), "s1", Function.identity());
+        assertSame(v2s2, sm.getState("s2"));
+        assertSame(s2, context.getCurrentState());
+
+        sm.handle(new Event("bar", context));
+        assertSame(v2s1, context.getCurrentState());
+
+        State idle = new State("idle");
+        State busy = new State("busy");
+        busy.addTransition(new NoopTransition("bar", idle));
+        sm.redefine(List.of(idle, busy), "idle", id -> "s2".equals(id) ? "busy" : "idle");
+
+        /* Passes through both mappings. */
+        sm.handle(new Event("bar", other));
+        assertSame(idle, other.getCurrentState());
+
+        StateContext fresh = new DefaultStateContext();
+        assertEquals(DispatchResult.UNHANDLED, sm.tryHandle(new Event("bar", fresh)));
+        assertSame(idle, fresh.getCurrentState());
+
+        sm.redefine(List.of(idle, busy), "idle", id -> "unknown");
+        assertThrows(NoSuchStateException.class, () -> sm.handle(new Event("bar", fresh)));
+        assertThrows(NoSuchStateException.class, () -> sm.redefine(List.of(idle), "unknown", Function.identity()));
+    }
+
+    @Test
+    void testBroadcast() {
+        State running = new State("running");
+        State stopped = new State("stopped");
+        running.addTransition(new LambdaTransition("shutdown", stopped, (ctx, args) -> {
+            if ("fail".equals(ctx.getAttribute("name"))) {
+                throw new IllegalStateException("failed");
+            }
+            ctx.setAttribute("reason", args[0]);
+        }));
+
+        List<StateContext> contexts = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            contexts.add(new DefaultStateContext());
+        }
+        contexts.get(7).setAttribute("name", "fail");
+        StateMachine sm = new StateMachine(new State[]{running, stopped}, "running");
+        sm.handle(new Event("shutdown", contexts.get(3), new Object[]{"early"}));
+
+        BroadcastResult result = sm.broadcast(contexts, "shutdown", "maintenance");
+        assertEquals(2000, result.getContextCount());
+        assertEquals(1998, result.getCount(DispatchResult.HANDLED));
+        assertEquals(1, result.getCount(DispatchResult.UNHANDLED));
+        assertEquals(1, result.getFailures().size());
+        assertSame(contexts.get(7), result.getFailures().get(0).context());
+        assertEquals("maintenance", contexts.get(1999).getAttribute("reason"));
+        assertEquals("early", contexts.get(3).getAttribute("reason"));
+
+        assertThrows(UnsupportedOperationException.class, () -> sm.broadcast(args -> null, "shutdown"));
+    }
+
+    @Test
+    void testBroadcastHandlerMayDispatch() {
+        State running = new State("running");
+        State stopped = new State("stopped");
+        StateContext audit = new DefaultStateContext();
+        List<Object> stoppedContexts = new ArrayList<>();
+        StateMachine[] machine = new StateMachine[1];
+        running.addTransition(new LambdaTransition("shutdown", stopped,
+            (ctx, args) -> machine[0].handle(new Event("stopped", audit, new Object[]{ctx}))));
+        running.addTransition(new LambdaTransition("stopped", (ctx, args) -> stoppedContexts.add(args[0])));
+
+        List<StateContext> contexts = List.of(new DefaultStateContext(), new DefaultStateContext());
+        machine[0] = new StateMachine(new State[]{running, stopped}, "running");
+        BroadcastResult result = machine[0].broadcast(contexts, "shutdown");
+
+        assertEquals(2, result.getCount(DispatchResult.HANDLED));
+        assertEquals(contexts, stoppedContexts, "We expect the events of the handlers to be processed in order.");
+    }
+
+    @Test
+    void testBroadcastListener() {
+        State running = new State("running");
+        State stopped = new State("stopped");
+        running.addTransition(new LambdaTransition("shutdown", stopped, (ctx, args) -> {
+            if ("fail".equals(ctx.getAttribute("name"))) {
+                throw new IllegalStateException("failed");
+            }
+        }));
+
+        List<StateContext> contexts = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            contexts.add(new DefaultStateContext());
+        }
+        contexts.get(2).setAttribute("name", "fail");
+        StateMachine sm = new StateMachine(new State[]{running, stopped}, "running");
+
+        List<StateContext> processed = new ArrayList<>();
+        List<RuntimeException> failures = new ArrayList<>();
+        BroadcastResult result = sm.broadcast(contexts, (context, dispatchResult, exception) -> {
+            processed.add(context);
+            if (exception != null) {
+                failures.add(exception);
+            } else {
+                assertEquals(DispatchResult.HANDLED, dispatchResult);
+            }
+        }, "shutdown");
+
+        assertEquals(contexts, processed);
+        assertEquals(1, failures.size());
+        assertEquals(4, result.getCount(DispatchResult.HANDLED));
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm;
+
+import de.am.common.sm.context.DefaultStateContext;
+import de.am.common.sm.context.StateContext;
+import de.am.common.sm.event.Event;
+import de.am.common.sm.transition.LambdaTransition;
+import de.am.common.sm.transition.NoopTransition;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests {@link StateTable}.
+ *
+ * @author Martin Absmeier
+ */
+class StateTableTest {
+
+    @Test
+    void testNext() {
+        State parent = new State("parent");
+        State s1 = new State("s1", parent);
+        State s2 = new State("s2", parent);
+        State s3 = new State("s3");
+        parent.addTransition(new NoopTransition("reset", s1));
+        parent.addTransition(new NoopTransition("foo", s3));
+        s1.addTransition(new NoopTransition("foo", s3), 1);
+        s1.addTransition(new NoopTransition("foo", s2));
+        s2.addTransition(new NoopTransition("bar"));
+        s2.addDeferredEventId("foo");
+
+        StateTable table = new StateMachine(new State[]{parent, s1, s2, s3}, "s1").getStateTable();
+        assertNotNull(table);
+        assertEquals(4, table.getStateCount());
+        assertEquals(3, table.getEventCount());
+
+        int foo = table.eventOrdinal("foo");
+        int bar = table.eventOrdinal("bar");
+        int reset = table.eventOrdinal("reset");
+        assertEquals(StateTable.UNHANDLED, table.eventOrdinal("baz"));
+
+        assertSame(s2, table.getState(table.next(table.stateOrdinal(s1), foo)));
+        assertSame(s1, table.getState(table.next(table.stateOrdinal(s2), reset)));
+        assertSame(s2, table.getState(table.next(table.stateOrdinal(s2), bar)));
+        assertEquals(StateTable.UNHANDLED, table.next(table.stateOrdinal(s2), foo), "We expect deferral to hide the parent transition.");
+        assertEquals(StateTable.UNHANDLED, table.next(table.stateOrdinal(s3), foo));
+    }
+
+    @Test
+    void testNextChecksEventOrdinal() {
+        StateTable table = createToggle();
+        int off = 0;
+
+        assertEquals(StateTable.UNHANDLED, table.next(off, StateTable.UNHANDLED));
+        assertEquals(StateTable.UNHANDLED, table.fire(off, StateTable.UNHANDLED, new DefaultStateContext(), new Object[0]));
+        assertThrows(IllegalArgumentException.class, () -> table.next(off, table.getEventCount()));
+        assertThrows(IllegalArgumentException.class, () -> table.next(off, -2));
+        assertThrows(IllegalArgumentException.class, () -> table.fire(off, table.getEventCount(), new DefaultStateContext(), new Object[0]));
+    }
+
+    @Test
+    void testFire() {
+        State s1 = new State("s1");
+        State s2 = new State("s2");
+        List<Object> received = new ArrayList<>();
+        s1.addTransition(new LambdaTransition("foo", s2, (context, args) -> received.add(args[0])));
+
+        StateTable table = new StateMachine(new State[]{s1, s2}, "s1").getStateTable();
+        int next = table.fire(table.stateOrdinal(s1), table.eventOrdinal("foo"), new DefaultStateContext(), new Object[]{42});
+        assertSame(s2, table.getState(next));
+        assertEquals(List.of(42), received);
+    }
+
+    @Test
+    void testFireWithStateControl() {
+        State s1 = new State("s1");
+        State s2 = new State("s2");
+        State s3 = new State("s3");
+        s1.addTransition(new LambdaTransition("next", s2, (context, args) -> StateControl.breakAndGotoNext("s3")));
+        s1.addTransition(new LambdaTransition("now", s2, (context, args) -> StateControl.breakAndGotoNow("s2")));
+        s1.addTransition(new LambdaTransition("skip", s2, (context, args) -> StateControl.breakAndContinue()));
+        s1.addTransition(new LambdaTransition("call", s2, (context, args) -> StateControl.breakAndCallNext("s3")));
+        s2.addTransition(new NoopTransition("now", s3));
+
+        StateTable table = new StateMachine(new State[]{s1, s2, s3}, "s1").getStateTable();
+        int s = table.stateOrdinal(s1);
+        DefaultStateContext context = new DefaultStateContext();
+        assertSame(s3, table.getState(table.fire(s, table.eventOrdinal("next"), context, new Object[0])));
+        assertSame(s3, table.getState(table.fire(s, table.eventOrdinal("now"), context, new Object[0])));
+        assertEquals(StateTable.UNHANDLED, table.fire(s, table.eventOrdinal("skip"), context, new Object[0]));
+        assertThrows(IllegalStateException.class, () -> table.fire(s, table.eventOrdinal("call"), context, new Object[0]));
+    }
+
+    @Test
+    void testOrdinals() {
+        State[] states = new State[3];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = new State("s" + i);
+        }
+        for (int e = 0; e < 100; e++) {
+            states[0].addTransition(new NoopTransition("e" + e, states[e % states.length]));
+        }
+
+        StateTable first = new StateMachine(states, "s0").getStateTable();
+        assertEquals(100, first.getEventCount());
+        for (int e = 0; e < 100; e++) {
+            assertSame(states[e % states.length], first.getState(first.next(first.stateOrdinal(states[0]), first.eventOrdinal("e" + e))));
+        }
+        assertEquals(StateTable.UNHANDLED, first.eventOrdinal("e100"));
+
+        /* The states now carry the ordinals of the second table, the first one still finds them. */
+        StateTable second = new StateMachine(new State[]{states[2], states[1], states[0]}, "s0").getStateTable();
+        for (State state : states) {
+            assertSame(state, first.getState(first.stateOrdinal(state)));
+            assertSame(state, second.getState(second.stateOrdinal(state)));
+        }
+    }
+
+    @Test
+    void testNotCompiled() {
+        State s1 = new State("s1");
+        s1.addTransition(new LambdaTransition("foo", null, (context, args) -> true, (context, args) -> {
+        }));
+        assertNull(new StateMachine(new State[]{s1}, "s1").getStateTable());
+
+        State s2 = new State("s2");
+        s2.addTransition(new NoopTransition(Event.WILDCARD_EVENT_ID));
+        assertNull(new StateMachine(new State[]{s2}, "s2").getStateTable());
+    }
+
+    @Test
+    void testDispatchThroughTable() {
+        State s1 = new State("s1");
+        State s2 = new State("s2");
+        List<String> hooks = new ArrayList<>();
+        s1.addTransition(new NoopTransition("foo", s2));
+        s2.addTransition(new NoopTransition("foo"));
+        s2.addOnEntrySelfTransaction((context, state) -> hooks.add("enter " + state.getId()));
+
+        StateMachine sm = new StateMachine(new State[]{s1, s2}, "s1");
+        assertNotNull(sm.getStateTable());
+
+        StateContext context = new DefaultStateContext();
+        assertEquals(DispatchResult.HANDLED, sm.tryHandle(new Event("foo", context)));
+        assertEquals(DispatchResult.HANDLED, sm.tryHandle(new Event("foo", context)));
+        assertEquals(DispatchResult.UNHANDLED, sm.tryHandle(new Event("bar", context)));
+        assertSame(s2, context.getCurrentState());
+        assertEquals(List.of("enter s2"), hooks);
+    }
+
+    @Test
+    void testAdvance() {
+        StateTable table = createToggle();
+        int on = table.eventOrdinal("on");
+        int off = table.eventOrdinal("off");
+
+        int[] states = new int[3];
+        int unhandled = table.advance(new int[]{0, 1, 0, 2, 1}, new int[]{on, on, off, off, on}, states);
+        assertEquals(2, unhandled);
+        assertEquals("off", table.getState(states[0]).getId());
+        assertEquals("on", table.getState(states[1]).getId());
+        assertEquals("off", table.getState(states[2]).getId());
+        assertThrows(IllegalArgumentException.class, () -> table.advance(new int[1], new int[2], states));
+    }
+
+    @Test
+    void testAdvanceParallel() {
+        StateTable table = createToggle();
+        int on = table.eventOrdinal("on");
+        int off = table.eventOrdinal("off");
+
+        int contextCount = 1000;
+        int[] contexts = new int[100_000];
+        int[] events = new int[contexts.length];
+        Random random = new Random(42);
+        for (int i = 0; i < contexts.length; i++) {
+            contexts[i] = random.nextInt(contextCount);
+            events[i] = random.nextBoolean() ? on : off;
+        }
+
+        int[] expected = new int[contextCount];
+        int[] actual = new int[contextCount];
+        assertEquals(table.advance(contexts, events, expected), table.advanceParallel(contexts, events, actual, 8));
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void testAdvanceChecksEventOrdinals() {
+        StateTable table = createToggle();
+        int on = table.eventOrdinal("on");
+
+        int[] states = new int[2];
+        assertEquals(1, table.advance(new int[]{0, 1}, new int[]{on, StateTable.UNHANDLED}, states));
+        assertEquals("on", table.getState(states[0]).getId());
+        assertEquals("off", table.getState(states[1]).getId());
+        assertEquals(1, table.advanceParallel(new int[]{0, 1}, new int[]{StateTable.UNHANDLED, on}, new int[2], 2));
+
+        int[] invalid = {on, table.getEventCount()};
+        assertThrows(IllegalArgumentException.class, () -> table.advance(new int[]{0, 1}, invalid, new int[2]));
+        assertThrows(IllegalArgumentException.class, () -> table.advanceParallel(new int[]{0, 1}, invalid, new int[2], 2));
+        assertThrows(IllegalArgumentException.class, () -> table.advance(new int[]{0, 2}, new int[]{on, on}, new int[2]));
+    }
+
+    @Test
+    void testAdvanceParallelChecksBatchBeforeSplitting() {
+        StateTable table = createToggle();
+        int on = table.eventOrdinal("on");
+
+        int contextCount = 1000;
+        int[] contexts = new int[10_000];
+        int[] events = new int[contexts.length];
+        for (int i = 0; i < contexts.length; i++) {
+            contexts[i] = i % contextCount;
+            events[i] = on;
+        }
+        /* The invalid event belongs to the last partition, all others would be applied before it is found. */
+        events[events.length - 1] = -2;
+
+        int[] states = new int[contextCount];
+        assertThrows(IllegalArgumentException.class, () -> table.advanceParallel(contexts, events, states, 8));
+        assertArrayEquals(new int[contextCount], states, "We expect no state to be changed.");
+    }
+
+    private static StateTable createToggle() {
+        State off = new State("off");
+        State on = new State("on");
+        off.addTransition(new NoopTransition("on", on));
+        on.addTransition(new NoopTransition("off", off));
+        return new StateMachine(new State[]{off, on}, "off").getStateTable();
+    }
+}
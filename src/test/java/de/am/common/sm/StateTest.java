@@ -21,8 +21,14 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -90,6 +96,33 @@ class StateTest {
         assertSame(transition1, state.getTransitions().get(2));
     }
 
+    @Test
+    void testEqualWeightsKeepInsertionOrder() {
+        state.addTransition(transition1, 5);
+        state.addTransition(transition2, 1);
+        state.addTransition(transition3, 5);
+        state.freeze();
+        assertArrayEquals(new Transition[]{transition2, transition1, transition3}, state.getTransitionArray());
+        assertSame(transition2, state.getTransitions().get(0));
+        assertSame(transition1, state.getTransitions().get(1));
+        assertSame(transition3, state.getTransitions().get(2));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void testDeprecatedAccessors() {
+        state.addTransition(transition1, 5);
+        state.setTransitions(List.of(transition3, transition2));
+        assertEquals(List.of(transition3, transition2), state.getTransitions());
+        assertEquals(2, state.getTransitionHolders().size());
+        assertTrue(state.getOnEntries().isEmpty());
+        assertTrue(state.getOnExits().isEmpty());
+
+        state.freeze();
+        assertThrows(IllegalStateException.class, () -> state.setTransitions(List.of(transition1)));
+        assertThrows(UnsupportedOperationException.class, () -> state.getOnEntries().add(null));
+    }
+
     @Test
     void testAddTransitionReturnsSelf() {
         assertSame(state, state.addTransition(transition1));
@@ -99,4 +132,57 @@ class StateTest {
     void testAddNullTransitionThrowsException() {
         assertThrows(NullPointerException.class, () -> state.addTransition(null));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testSetTimeout() {
+        assertNull(state.getTimeout());
+        state.setTimeout(Duration.ofSeconds(1), "timeout");
+        assertEquals(Duration.ofSeconds(1), state.getTimeout());
+        assertEquals("timeout", state.getTimeoutEventId());
+
+        state.setTimeout(null, "timeout");
+        assertNull(state.getTimeout());
+        assertNull(state.getTimeoutEventId());
+
+        assertThrows(NullPointerException.class, () -> state.setTimeout(Duration.ofSeconds(1), null));
+    }
+
+    @Test
+    void testFreeze() {
+        state.addTransition(transition1);
+        assertFalse(state.isFrozen());
+        assertSame(state, state.freeze());
+        assertTrue(state.isFrozen());
+
+        assertSame(state.getTransitions(), state.getTransitions());
+        assertSame(transition1, state.getTransitions().get(0));
+        assertThrows(IllegalStateException.class, () -> state.addTransition(transition2));
+        assertThrows(IllegalStateException.class, () -> state.addDeferredEventId("foo"));
+        assertThrows(IllegalStateException.class, () -> state.setTerminal(true));
+        assertThrows(UnsupportedOperationException.class, () -> state.getTransitions().add(transition2));
+        assertEquals(1, state.getTransitions().size());
+    }
+
+    @Test
+    void testConcurrentDispatchesReachCompileThreshold() throws InterruptedException {
+        state.addTransition(transition1);
+        state.freeze();
+
+        int threads = 4;
+        int dispatches = 10_000;
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                for (int j = 0; j < dispatches; j++) {
+                    state.getTransitionArray("foo", threads * dispatches);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertTrue(state.isIndexed(), "We expect every dispatch to be counted.");
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm;
+
+import de.am.common.sm.event.Event;
+import de.am.common.sm.transition.AbstractTransition;
+import de.am.common.sm.transition.NoopTransition;
+import de.am.common.sm.transition.Transition;
+import de.am.common.sm.transition.TypedTransition;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests {@link TransitionIndex}.
+ *
+ * @author Martin Absmeier
+ */
+class TransitionIndexTest {
+
+    @Test
+    void testGet() {
+        Transition foo1 = new NoopTransition("foo");
+        Transition any = new NoopTransition(Event.WILDCARD_EVENT_ID);
+        Transition foo2 = new NoopTransition("foo");
+        Transition bar = new NoopTransition("bar");
+        TransitionIndex index = new TransitionIndex(new Transition[]{foo1, any, foo2, bar});
+
+        assertArrayEquals(new Transition[]{foo1, any, foo2}, index.get("foo"));
+        assertArrayEquals(new Transition[]{any, bar}, index.get("bar"));
+        assertArrayEquals(new Transition[]{any}, index.get("baz"));
+    }
+
+    @Test
+    void testGetTyped() {
+        Transition number = new TypedTransition<>(Number.class, null, (ctx, message) -> { });
+        Transition foo = new NoopTransition("foo");
+        Transition any = new NoopTransition(Event.WILDCARD_EVENT_ID);
+        Transition integer = new TypedTransition<>(Integer.class, null, (ctx, message) -> { });
+        TransitionIndex index = new TransitionIndex(new Transition[]{number, foo, any, integer});
+
+        assertArrayEquals(new Transition[]{number, any, integer}, index.get(Integer.class));
+        assertArrayEquals(new Transition[]{number, any}, index.get(Long.class));
+        assertArrayEquals(new Transition[]{any}, index.get(String.class));
+        assertArrayEquals(new Transition[]{foo, any}, index.get("foo"));
+        assertArrayEquals(new Transition[]{any}, index.get("bar"));
+        assertSame(index.get(Integer.class), index.get(Integer.class));
+    }
+
+    @Test
+    void testGetCustomMatching() {
+        Transition prefix = new PrefixTransition("foo");
+        Transition bar = new NoopTransition("bar");
+        TransitionIndex index = new TransitionIndex(new Transition[]{prefix, bar});
+
+        assertArrayEquals(new Transition[]{prefix}, index.get("foobar"), "We expect a custom matching to be tried for any id.");
+        assertArrayEquals(new Transition[]{prefix, bar}, index.get("bar"));
+    }
+
+    private static class PrefixTransition extends AbstractTransition {
+        PrefixTransition(Object eventId) {
+            super(eventId);
+        }
+
+        @Override
+        public boolean execute(Event event) {
+            return String.valueOf(event.getId()).startsWith(String.valueOf(getEventId())) && doExecute(event);
+        }
+
+        @Override
+        protected boolean doExecute(Event event) {
+            return true;
+        }
+    }
+}
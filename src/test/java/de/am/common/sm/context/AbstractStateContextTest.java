@@ -0,0 +1,75 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.context;
+
+import de.am.common.sm.State;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * JUnit test cases of {@link AbstractStateContext} class.
+ *
+ * @author Martin Absmeier
+ */
+class AbstractStateContextTest {
+
+    @Test
+    void attributesAllocatedLazily() {
+        DefaultStateContext context = new DefaultStateContext();
+        assertNull(context.getAttribute("foo"), "We expect no attribute.");
+        assertTrue(context.toString().contains("attributes=null"), "We expect no attribute map before the first attribute is stored.");
+
+        context.setAttribute("foo", "bar");
+        assertTrue(context.toString().contains("attributes={foo=bar}"), "We expect an attribute map.");
+        assertEquals("bar", context.getAttribute("foo"));
+    }
+
+    @Test
+    void equalsHashCodeAndToStringDoNotAllocateAttributes() {
+        DefaultStateContext context = new DefaultStateContext();
+        DefaultStateContext other = new DefaultStateContext();
+        assertEquals(other, context, "We expect equal contexts.");
+        assertEquals(other.hashCode(), context.hashCode(), "We expect equal hash codes.");
+        assertTrue(context.toString().contains("attributes=null"), "We expect no attribute map.");
+        assertTrue(other.toString().contains("attributes=null"), "We expect no attribute map.");
+    }
+
+    @Test
+    void getAttributesNeverNull() {
+        DefaultStateContext context = new DefaultStateContext();
+        assertNotNull(context.getAttributes(), "We expect an attribute map.");
+        context.getAttributes().put("foo", "bar");
+        assertEquals("bar", context.getAttribute("foo"));
+    }
+
+    @Test
+    void reset() {
+        DefaultStateContext context = new DefaultStateContext();
+        context.setCurrentState(new State("foo"));
+        context.setAttribute("foo", "bar");
+        context.setMachineData("data");
+
+        context.reset();
+        assertNull(context.getCurrentState(), "We expect no current state.");
+        assertNull(context.getAttribute("foo"), "We expect no attribute.");
+        assertNull(context.getMachineData(), "We expect no machine data.");
+        assertTrue(context.toString().contains("attributes=null"), "We expect no attribute map.");
+    }
+}
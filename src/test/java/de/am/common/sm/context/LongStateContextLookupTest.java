@@ -0,0 +1,121 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.context;
+
+import de.am.common.sm.State;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * JUnit test cases of {@link LongStateContextLookup} class.
+ *
+ * @author Martin Absmeier
+ */
+class LongStateContextLookupTest {
+
+    @Test
+    void constructorFactoryNull() {
+        assertThrows(IllegalArgumentException.class, () -> new LongStateContextLookup(null));
+    }
+
+    @Test
+    void testLookupFromEventArguments() {
+        LongStateContextLookup lookup = new LongStateContextLookup();
+
+        StateContext sc = lookup.lookup(new Object[]{"foo", 42L, 7L});
+        assertNotNull(sc, "We expect a context.");
+        assertSame(sc, lookup.lookup(42L));
+        assertSame(sc, lookup.lookup(new Object[]{42L}));
+        assertNull(lookup.lookup(new Object[]{"foo", 42}), "We expect no context without a long argument.");
+        assertEquals(1, lookup.size());
+    }
+
+    @Test
+    void testRemoveReleasesContext() {
+        List<StateContext> released = new ArrayList<>();
+        LongStateContextLookup lookup = new LongStateContextLookup(new StateContextFactory() {
+            @Override
+            public StateContext create() {
+                return new DefaultStateContext();
+            }
+
+            @Override
+            public void release(StateContext context) {
+                released.add(context);
+            }
+        });
+
+        StateContext sc = lookup.lookup(new Object[]{42L});
+        sc.setCurrentState(new State("done"));
+        sc.setAttribute("foo", "bar");
+        lookup.remove(sc);
+        assertEquals(0, lookup.size());
+        assertNull(lookup.get(42L), "We expect the key to be gone.");
+        assertEquals(List.of(sc), released);
+        assertNull(sc.getCurrentState(), "We expect a reset context.");
+        assertNull(sc.getAttribute("foo"), "We expect a reset context.");
+
+        lookup.remove(sc);
+        lookup.remove(new DefaultStateContext());
+        assertEquals(1, released.size(), "We expect no release of a missing context.");
+    }
+
+    @Test
+    void testLookupAndRemoveManyKeys() {
+        LongStateContextLookup lookup = new LongStateContextLookup();
+        Map<Long, StateContext> expected = new HashMap<>();
+        for (long key = -500; key < 500; key++) {
+            expected.put(key * 31, lookup.lookup(key * 31));
+        }
+        assertEquals(expected.size(), lookup.size());
+
+        for (long key = -500; key < 500; key += 2) {
+            assertSame(expected.remove(key * 31), lookup.remove(key * 31));
+        }
+        assertNull(lookup.remove(12345L), "We expect nothing to remove.");
+        assertEquals(expected.size(), lookup.size());
+
+        for (Map.Entry<Long, StateContext> entry : expected.entrySet()) {
+            assertSame(entry.getValue(), lookup.get(entry.getKey()));
+        }
+        assertNull(lookup.get(-500L * 31), "We expect removed keys to be gone.");
+    }
+
+    @Test
+    void testContexts() {
+        LongStateContextLookup lookup = new LongStateContextLookup();
+        StateContext first = lookup.lookup(1L);
+        StateContext second = lookup.lookup(2L);
+        lookup.lookup(3L);
+        lookup.remove(3L);
+
+        List<StateContext> contexts = new ArrayList<>(lookup.contexts());
+        assertEquals(2, contexts.size());
+        assertTrue(contexts.stream().anyMatch(c -> c == first));
+        assertTrue(contexts.stream().anyMatch(c -> c == second));
+    }
+}
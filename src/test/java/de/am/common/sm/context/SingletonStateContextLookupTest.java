@@ -17,6 +17,9 @@ package de.am.common.sm.context;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
@@ -37,4 +40,10 @@ class SingletonStateContextLookupTest {
         SingletonStateContextLookup actual = new SingletonStateContextLookup(new DefaultStateContextFactory());
         assertNotNull(actual, "We expect an instance.");
     }
-}
\ No newline at end of file
+
+    @Test
+    void contexts() {
+        SingletonStateContextLookup lookup = new SingletonStateContextLookup();
+        assertEquals(List.of(lookup.lookup(new Object[0])), List.copyOf(lookup.contexts()));
+    }
+}
@@ -15,6 +15,8 @@
  */
 package de.am.common.sm.example;
 
+import de.am.common.sm.annotation.StateMachineProxy;
+
 /**
  * Simple command interface used by the example state machine.
  * <p>
@@ -23,6 +25,7 @@ package de.am.common.sm.example;
  *
  * @author Martin Absmeier
  */
+@StateMachineProxy
 public interface TapeDeck {
 
     /**
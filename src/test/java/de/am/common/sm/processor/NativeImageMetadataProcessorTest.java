@@ -0,0 +1,57 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.processor;
+
+import de.am.common.sm.example.TapeDeck;
+import de.am.common.sm.example.TapeDeckManager;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests {@link NativeImageMetadataProcessor} by reading the metadata it generated while the tests were compiled.
+ *
+ * @author Martin Absmeier
+ */
+class NativeImageMetadataProcessorTest {
+
+    @Test
+    void testReflectConfig() throws IOException {
+        String config = read("reflect-config.json");
+        assertTrue(config.contains("{\"name\": \"" + TapeDeckManager.class.getName() + "\", \"allDeclaredFields\": true"));
+        assertTrue(config.contains("{\"name\": \"" + "de.am.common.sm.StateMachineFactoryTest$States" + "\""));
+        assertTrue(config.contains("{\"name\": \"de.am.common.sm.annotation.Transition\", \"allPublicMethods\": true}"));
+    }
+
+    @Test
+    void testProxyConfig() throws IOException {
+        String config = read("proxy-config.json");
+        assertTrue(config.contains("{\"interfaces\": [\"" + TapeDeck.class.getName() + "\"]}"));
+    }
+
+    private static String read(String name) throws IOException {
+        String path = NativeImageMetadataProcessor.DEFAULT_DIRECTORY + "/" + name;
+        try (InputStream in = NativeImageMetadataProcessorTest.class.getClassLoader().getResourceAsStream(path)) {
+            assertNotNull(in, path);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
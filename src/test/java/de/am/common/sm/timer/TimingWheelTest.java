@@ -0,0 +1,140 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.timer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests {@link TimingWheel}.
+ *
+ * @author Martin Absmeier
+ */
+class TimingWheelTest {
+
+    private TimingWheel wheel;
+
+    @BeforeEach
+    void setUp() {
+        wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 8);
+    }
+
+    @AfterEach
+    void tearDown() {
+        wheel.stop();
+    }
+
+    @Test
+    void testScheduleFires() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        TimerHandle handle = wheel.schedule(h -> latch.countDown(), 5, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(handle.isExpired());
+        assertFalse(handle.cancel());
+    }
+
+    @Test
+    void testScheduleBeyondOneRevolution() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        wheel.schedule(h -> latch.countDown(), 30, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(29));
+    }
+
+    @Test
+    void testTasksOfOneTickRunInDeadlineOrder() throws InterruptedException {
+        TimingWheel coarse = new TimingWheel(200, TimeUnit.MILLISECONDS, 8);
+        try {
+            List<String> order = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch latch = new CountDownLatch(3);
+            coarse.schedule(h -> { order.add("late"); latch.countDown(); }, 50, TimeUnit.MILLISECONDS);
+            coarse.schedule(h -> { order.add("early"); latch.countDown(); }, 10, TimeUnit.MILLISECONDS);
+            coarse.schedule(h -> { order.add("later"); latch.countDown(); }, 50, TimeUnit.MILLISECONDS);
+
+            assertTrue(latch.await(2, TimeUnit.SECONDS));
+            assertEquals(List.of("early", "late", "later"), order);
+        } finally {
+            coarse.stop();
+        }
+    }
+
+    @Test
+    void testCancelPreventsExecution() throws InterruptedException {
+        AtomicInteger counter = new AtomicInteger();
+        TimerHandle handle = wheel.schedule(h -> counter.incrementAndGet(), 20, TimeUnit.MILLISECONDS);
+
+        assertTrue(handle.cancel());
+        assertTrue(handle.isCancelled());
+        Thread.sleep(100);
+        assertEquals(0, counter.get());
+    }
+
+    @Test
+    void testScheduleAtFixedRate() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(3);
+        TimerHandle handle = wheel.scheduleAtFixedRate(h -> latch.countDown(), 0, 5, TimeUnit.MILLISECONDS);
+
+        assertTrue(handle.isPeriodic());
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertFalse(handle.isExpired());
+        assertTrue(handle.cancel());
+    }
+
+    @Test
+    void testCancelStopsPeriodicExecution() throws InterruptedException {
+        AtomicInteger counter = new AtomicInteger();
+        TimerHandle handle = wheel.scheduleAtFixedRate(h -> {
+            if (counter.incrementAndGet() == 2) {
+                h.cancel();
+            }
+        }, 0, 5, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(100);
+        assertTrue(handle.isCancelled());
+        assertEquals(2, counter.get());
+    }
+
+    @Test
+    void testScheduleAfterStop() {
+        wheel.stop();
+        assertThrows(IllegalStateException.class, () -> wheel.schedule(h -> {
+        }, 1, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel(0, TimeUnit.MILLISECONDS, 8));
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel(1, TimeUnit.MILLISECONDS, 0));
+        assertThrows(IllegalArgumentException.class, () -> wheel.scheduleAtFixedRate(h -> {
+        }, 0, 0, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.transition;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * JUnit test cases of {@link ContextMethodTransition} class.
+ *
+ * @author Martin Absmeier
+ */
+class ContextMethodTransitionTest extends AbstractTransitionTest {
+
+    @Test
+    void testExecuteOnBoundHandler() throws Exception {
+        when(context.getAttribute(Target.class)).thenReturn(target);
+        Method method = Target.class.getMethod("subsetAllArgs", TestStateContext.class, B.class, A.class, Integer.TYPE);
+
+        ContextMethodTransition t = new ContextMethodTransition("event", nextState, method, Target.class);
+        assertTrue(t.execute(argsEvent));
+        verify(target).subsetAllArgs(context, (B) args[1], (A) args[2], (Integer) args[3]);
+    }
+
+    @Test
+    void testExecuteWithoutBoundHandler() throws Exception {
+        Method method = Target.class.getMethod("noArgs");
+
+        ContextMethodTransition t = new ContextMethodTransition("event", method, Target.class);
+        assertThrows(IllegalStateException.class, () -> t.execute(noArgsEvent));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.transition;
+
+import de.am.common.sm.context.DefaultStateContext;
+import de.am.common.sm.context.StateContext;
+import de.am.common.sm.event.Event;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * JUnit test cases of {@link LambdaTransition} class.
+ *
+ * @author Martin Absmeier
+ */
+class LambdaTransitionTest {
+
+    @Test
+    void constructorActionNull() {
+        assertThrows(NullPointerException.class, () -> new LambdaTransition("eventId", null));
+    }
+
+    @Test
+    void executeAction() {
+        List<Object[]> calls = new ArrayList<>();
+        StateContext context = new DefaultStateContext();
+        Object[] args = {"foo", 42};
+        LambdaTransition actual = new LambdaTransition("eventId", (ctx, arguments) -> {
+            assertSame(context, ctx);
+            calls.add(arguments);
+        });
+
+        assertTrue(actual.execute(new Event("eventId", context, args)));
+        assertFalse(actual.execute(new Event("otherId", context, args)));
+        assertEquals(1, calls.size());
+        assertSame(args, calls.get(0));
+    }
+
+    @Test
+    void executeGuarded() {
+        int[] calls = new int[1];
+        LambdaTransition actual = new LambdaTransition("eventId", null,
+            (ctx, arguments) -> arguments.length > 0, (ctx, arguments) -> calls[0]++);
+
+        StateContext context = new DefaultStateContext();
+        assertFalse(actual.execute(new Event("eventId", context)), "We expect the guard to reject the event.");
+        assertTrue(actual.execute(new Event("eventId", context, new Object[]{"foo"})));
+        assertEquals(1, calls[0]);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2022 Martin Absmeier
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.am.common.sm.transition;
+
+import de.am.common.sm.context.DefaultStateContext;
+import de.am.common.sm.context.StateContext;
+import de.am.common.sm.event.Event;
+import de.am.common.sm.event.TypedEventFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * JUnit test cases of {@link TypedTransition} class.
+ *
+ * @author Martin Absmeier
+ */
+class TypedTransitionTest {
+
+    @Test
+    void constructorTypeNull() {
+        assertThrows(NullPointerException.class, () -> new TypedTransition<>(null, null, (ctx, message) -> {
+        }));
+    }
+
+    @Test
+    void executeSubtypes() {
+        List<Message> messages = new ArrayList<>();
+        TypedTransition<Message> actual = new TypedTransition<>(Message.class, null, (ctx, message) -> messages.add(message));
+
+        StateContext context = new DefaultStateContext();
+        assertTrue(actual.execute(TypedEventFactory.of(context, new Ping(1))));
+        assertTrue(actual.execute(TypedEventFactory.of(context, new Pong(2))));
+        assertFalse(actual.execute(TypedEventFactory.of(context, "foo")));
+        assertFalse(actual.execute(new Event("ping", context, new Object[]{new Ping(3)})));
+        assertEquals(List.of(new Ping(1), new Pong(2)), messages);
+    }
+
+    @Test
+    void executeGuarded() {
+        List<Ping> pings = new ArrayList<>();
+        TypedTransition<Ping> actual = new TypedTransition<>(Ping.class, null, (ctx, ping) -> ping.sequence() > 1, (ctx, ping) -> pings.add(ping));
+
+        StateContext context = new DefaultStateContext();
+        assertFalse(actual.execute(TypedEventFactory.of(context, new Ping(1))));
+        assertTrue(actual.execute(TypedEventFactory.of(context, new Ping(2))));
+        assertFalse(actual.execute(TypedEventFactory.of(context, new Pong(3))));
+        assertEquals(List.of(new Ping(2)), pings);
+    }
+
+    sealed interface Message permits Ping, Pong {
+    }
+
+    record Ping(int sequence) implements Message {
+    }
+
+    record Pong(int sequence) implements Message {
+    }
+}